@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.examples.http;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of response bodies of 1KB to 1MB and lookup of response headers
+ * <p>
+ * The responses are built in memory so that only the client side processing is measured.
+ * The benchmark is in the package of the http client to access its protected methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpClientBenchmark {
+
+    @Param({"1", "100", "1024"})
+    public int sizeKb;
+
+    private HttpClient client;
+    private InMemoryResponse response;
+    private HttpResponse httpResponse;
+
+    @Setup
+    public void setUp() throws Exception {
+        client = new HttpClient(60000, null, null, null, null, null, null, 0, null, null, null, null, null);
+        byte[] body = new byte[sizeKb * 1024];
+        Arrays.fill(body, (byte) 'a');
+        response = new InMemoryResponse(body);
+
+        // typical headers of a response, the one looked up being the last
+        List<BasicNameValuePair> headers = new ArrayList<>();
+        headers.add(new BasicNameValuePair("Date", "Mon, 02 Jun 2025 10:00:00 GMT"));
+        headers.add(new BasicNameValuePair("Server", "nginx"));
+        headers.add(new BasicNameValuePair("Content-Type", "application/json; charset=utf-8"));
+        headers.add(new BasicNameValuePair("Content-Length", String.valueOf(body.length)));
+        headers.add(new BasicNameValuePair("Cache-Control", "no-cache"));
+        headers.add(new BasicNameValuePair("Set-Cookie", "SESSION=1234; Path=/; HttpOnly"));
+        headers.add(new BasicNameValuePair("Strict-Transport-Security", "max-age=31536000"));
+        headers.add(new BasicNameValuePair("X-Request-Id", "6f1c2e5a-9d1b-4c7e-8a55-3b0f4d2e7c11"));
+        httpResponse = new HttpResponse(body, headers, 200, StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public byte[] readResponse() throws Exception {
+        return client.readResponse(response);
+    }
+
+    @Benchmark
+    public BasicNameValuePair getResponseHeader() {
+        return httpResponse.getResponseHeader("x-request-id");
+    }
+
+    private static class InMemoryResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private InMemoryResponse(byte[] body) {
+            super(HttpVersion.HTTP_1_1, 200, "OK");
+            // the entity is repeatable, each read gets a new stream on the same bytes
+            setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.system.DatabaseKeywords;
+import org.openjdk.jmh.annotations.*;
+import step.functions.io.Output;
+import step.handlers.javahandler.KeywordRunner;
+import step.handlers.javahandler.KeywordRunner.ExecutionContext;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insertion of 1000 rows by batches with ExecuteBatch, against an in-memory H2 database. The table is
+ * truncated before each iteration, so that the iterations measure the insertion into a table of the same size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBatchBenchmark {
+
+    private static final String CONNECTION_STRING = "jdbc:h2:mem:batch;DB_CLOSE_DELAY=-1";
+    private static final int BATCH_ROWS = 1000;
+
+    // keeps the in-memory database alive for the duration of the benchmark
+    private Connection setupConnection;
+    private ExecutionContext ctx;
+    private String batchInput;
+
+    @Setup
+    public void setUp() throws Exception {
+        setupConnection = DriverManager.getConnection(CONNECTION_STRING, "sa", "");
+        try (Statement statement = setupConnection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS BATCH_ITEMS");
+            statement.execute("CREATE TABLE BATCH_ITEMS(ID INT, NAME VARCHAR(64))");
+        }
+        ctx = KeywordRunner.getExecutionContext(Map.of("sa_Password", ""), DatabaseKeywords.class);
+        JsonArrayBuilder rows = Json.createArrayBuilder();
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            rows.add(Json.createArrayBuilder().add(i).add("item-" + i));
+        }
+        batchInput = Json.createObjectBuilder()
+                .add("ConnectionString", CONNECTION_STRING)
+                .add("Username", "sa")
+                .add("Query", "INSERT INTO BATCH_ITEMS(ID, NAME) VALUES (?, ?)")
+                .add("Data", rows.build().toString())
+                .build().toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() throws Exception {
+        try (Statement statement = setupConnection.createStatement()) {
+            statement.execute("TRUNCATE TABLE BATCH_ITEMS");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ctx.close();
+        setupConnection.close();
+    }
+
+    @Benchmark
+    public Output<JsonObject> executeBatch() throws Exception {
+        return ctx.run("ExecuteBatch", batchInput);
+    }
+}
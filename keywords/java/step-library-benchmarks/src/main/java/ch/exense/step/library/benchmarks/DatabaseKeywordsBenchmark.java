@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.system.DatabaseKeywords;
+import org.openjdk.jmh.annotations.*;
+import step.functions.io.Output;
+import step.handlers.javahandler.KeywordRunner;
+import step.handlers.javahandler.KeywordRunner.ExecutionContext;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of result sets of 10 to 10000 rows to the keyword output, against an in-memory H2 database,
+ * with the connection of the session or a connection borrowed from the agent wide pool, and with a cached
+ * prepared statement, and export of the result sets to a CSV file. The insertion by batches is measured by
+ * {@link DatabaseBatchBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseKeywordsBenchmark {
+
+    private static final String CONNECTION_STRING = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1";
+    private static final int TABLE_ROWS = 10000;
+
+    @Param({"10", "1000", "10000"})
+    public int resultLimit;
+
+    // keeps the in-memory database alive for the duration of the benchmark
+    private Connection setupConnection;
+    private ExecutionContext ctx;
+    private String queryInput;
+    private String pooledQueryInput;
+    private String preparedQueryInput;
+    private String exportInput;
+
+    @Setup
+    public void setUp() throws Exception {
+        setupConnection = DriverManager.getConnection(CONNECTION_STRING, "sa", "");
+        try (Statement statement = setupConnection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS ITEMS");
+            statement.execute("CREATE TABLE ITEMS(ID INT PRIMARY KEY, NAME VARCHAR(64), PRICE DECIMAL(10,2), " +
+                    "ACTIVE BOOLEAN, CREATED TIMESTAMP)");
+            statement.execute("INSERT INTO ITEMS SELECT X, 'item-' || X, MOD(X, 100) + 0.5, MOD(X, 2) = 0, " +
+                    "CURRENT_TIMESTAMP FROM SYSTEM_RANGE(1, " + TABLE_ROWS + ")");
+        }
+        ctx = KeywordRunner.getExecutionContext(Map.of("sa_Password", ""), DatabaseKeywords.class);
+        JsonObject query = Json.createObjectBuilder()
+                .add("ConnectionString", CONNECTION_STRING)
+                .add("Username", "sa")
+                .add("Query", "SELECT * FROM ITEMS ORDER BY ID")
+                .add("ResultLimit", String.valueOf(resultLimit))
+                .build();
+        queryInput = query.toString();
+        pooledQueryInput = Json.createObjectBuilder(query).add("Pool", true).build().toString();
+        preparedQueryInput = Json.createObjectBuilder(query)
+                .add("Query", "SELECT * FROM ITEMS WHERE ID > ? ORDER BY ID")
+                .add("Parameters", "[0]")
+                .build().toString();
+        File exportFile = File.createTempFile("export", ".csv");
+        exportFile.deleteOnExit();
+        exportInput = Json.createObjectBuilder(query)
+                .add("Export", "csv")
+                .add("ExportFile", exportFile.getAbsolutePath())
+                .build().toString();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ctx.run("CloseConnectionPool", Json.createObjectBuilder()
+                .add("ConnectionString", CONNECTION_STRING)
+                .add("Username", "sa")
+                .build().toString());
+        ctx.close();
+        setupConnection.close();
+    }
+
+    @Benchmark
+    public Output<JsonObject> executeQuery() throws Exception {
+        return ctx.run("ExecuteQuery", queryInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> executeQueryPooled() throws Exception {
+        return ctx.run("ExecuteQuery", pooledQueryInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> executeQueryPrepared() throws Exception {
+        return ctx.run("ExecuteQuery", preparedQueryInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> executeQueryExport() throws Exception {
+        return ctx.run("ExecuteQuery", exportInput);
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.excel.ExcelDataPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows handed out by a data pool of 10000 rows of 10 columns to 64 concurrent threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class ExcelDataPoolBenchmark {
+
+    private ExcelDataPool pool;
+
+    @Setup
+    public void setUp() throws Exception {
+        File file = Payloads.xlsx(10000, 10);
+        pool = ExcelDataPool.get(file, "Data", true);
+    }
+
+    @Benchmark
+    public Map<String, String> sequential() {
+        return pool.getRow(pool.nextRow(ExcelDataPool.Mode.SEQUENTIAL));
+    }
+
+    @Benchmark
+    public Map<String, String> random() {
+        return pool.getRow(pool.nextRow(ExcelDataPool.Mode.RANDOM));
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.excel.ExcelKeywords;
+import org.openjdk.jmh.annotations.*;
+import step.functions.io.Output;
+import step.handlers.javahandler.KeywordRunner;
+import step.handlers.javahandler.KeywordRunner.ExecutionContext;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of whole sheets of 100 to 10000 rows of 10 columns
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExcelKeywordsBenchmark {
+
+    private static final int COLUMNS = 10;
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    private ExecutionContext ctx;
+    private String readSheetInput;
+    private String readSheetStreamingInput;
+    private String readSheetCsvInput;
+
+    @Setup
+    public void setUp() throws Exception {
+        ctx = KeywordRunner.getExecutionContext(ExcelKeywords.class);
+        File file = Payloads.xlsx(rows, COLUMNS);
+        readSheetInput = Json.createObjectBuilder()
+                .add("File", file.getAbsolutePath())
+                .add("Sheet", "Data")
+                .build().toString();
+        readSheetStreamingInput = Json.createObjectBuilder()
+                .add("File", file.getAbsolutePath())
+                .add("Sheet", "Data")
+                .add("Streaming", true)
+                .build().toString();
+        readSheetCsvInput = Json.createObjectBuilder()
+                .add("File", file.getAbsolutePath())
+                .add("Sheet", "Data")
+                .add("Streaming", true)
+                .add("Format", "csv")
+                .build().toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Output<JsonObject> readExcelSheet() throws Exception {
+        return ctx.run("Read_Excel_Sheet", readSheetInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> readExcelSheetStreaming() throws Exception {
+        return ctx.run("Read_Excel_Sheet", readSheetStreamingInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> readExcelSheetStreamingCsv() throws Exception {
+        return ctx.run("Read_Excel_Sheet", readSheetCsvInput);
+    }
+}
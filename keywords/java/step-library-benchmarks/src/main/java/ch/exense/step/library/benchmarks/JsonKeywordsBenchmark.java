@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.system.JsonKeywords;
+import org.openjdk.jmh.annotations.*;
+import step.functions.io.Output;
+import step.handlers.javahandler.KeywordRunner;
+import step.handlers.javahandler.KeywordRunner.ExecutionContext;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction and replacement of json paths in documents of 1KB to 1MB read from a file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonKeywordsBenchmark {
+
+    @Param({"1", "100", "1024"})
+    public int sizeKb;
+
+    private ExecutionContext ctx;
+    private String extractInput;
+    private String replaceInput;
+
+    @Setup
+    public void setUp() throws Exception {
+        ctx = KeywordRunner.getExecutionContext(JsonKeywords.class);
+        File file = Payloads.writeTempFile(Payloads.json(sizeKb), ".json");
+        extractInput = Json.createObjectBuilder()
+                .add("File", file.getAbsolutePath())
+                .add("FirstName", "$.items[0].name")
+                .add("ActiveIds", "$.items[?(@.active == true)].id")
+                .build().toString();
+        // the same value is written at each invocation, the document remains unchanged
+        replaceInput = Json.createObjectBuilder()
+                .add("File", file.getAbsolutePath())
+                .add("$.items[0].name", "item-0")
+                .build().toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Output<JsonObject> extractJson() throws Exception {
+        return ctx.run("Extract_Json", extractInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> replaceJson() throws Exception {
+        return ctx.run("Replace_Json", replaceInput);
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generators of the documents processed by the benchmarks
+ * <p>
+ * The documents are made of repeated items, similar to the responses and data files
+ * handled by the keywords, until the requested size is reached.
+ */
+public class Payloads {
+
+    public static String json(int sizeKb) {
+        StringBuilder json = new StringBuilder(sizeKb * 1024 + 256).append("{\"items\":[");
+        for (int i = 0; json.length() < sizeKb * 1024; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"item-").append(i)
+                    .append("\",\"price\":").append(i % 100).append(".5")
+                    .append(",\"active\":").append(i % 2 == 0)
+                    .append(",\"tags\":[\"tag-").append(i % 10).append("\",\"common\"]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    public static String xml(int sizeKb) {
+        StringBuilder xml = new StringBuilder(sizeKb * 1024 + 256).append("<catalog>");
+        for (int i = 0; xml.length() < sizeKb * 1024; i++) {
+            xml.append("<item id=\"").append(i).append("\">")
+                    .append("<name>item-").append(i).append("</name>")
+                    .append("<price>").append(i % 100).append(".5</price>")
+                    .append("<tag>tag-").append(i % 10).append("</tag>")
+                    .append("</item>");
+        }
+        return xml.append("</catalog>").toString();
+    }
+
+    public static File writeTempFile(String content, String suffix) throws IOException {
+        File file = File.createTempFile("benchmark", suffix);
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Write a workbook with one sheet of the given size, the first column containing text and the others numbers
+     */
+    public static File xlsx(int rows, int columns) throws IOException {
+        File file = File.createTempFile("benchmark", ".xlsx");
+        file.deleteOnExit();
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Data");
+            for (int r = 0; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue("row-" + r);
+                for (int c = 1; c < columns; c++) {
+                    row.createCell(c).setCellValue(r * columns + c);
+                }
+            }
+            workbook.write(out);
+            workbook.dispose();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.benchmarks;
+
+import ch.exense.step.library.kw.system.XmlKeywords;
+import org.openjdk.jmh.annotations.*;
+import step.functions.io.Output;
+import step.handlers.javahandler.KeywordRunner;
+import step.handlers.javahandler.KeywordRunner.ExecutionContext;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keywords on small SOAP payloads passed as input, including the keyword input and output handling
+ * <p>
+ * The gain of the per thread factories and compiled xpaths alone is measured by the
+ * XmlFactoriesBenchmark, comparing the same raw JAXP calls with and without them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlSoapBenchmark {
+
+    private static final String SOAP = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+            "<soap:Header/><soap:Body><getOrderResponse><order id=\"42\" status=\"open\">" +
+            "<customer>ACME</customer><amount currency=\"CHF\">125.50</amount>" +
+            "</order></getOrderResponse></soap:Body></soap:Envelope>";
+    private static final String AMOUNT_XPATH = "//order[@status='open']/amount";
+    private static final String STATUS_XPATH = "//order/@status";
+
+    private ExecutionContext ctx;
+    private String extractInput;
+    private String validateInput;
+    private String replaceInput;
+
+    @Setup
+    public void setUp() {
+        ctx = KeywordRunner.getExecutionContext(XmlKeywords.class);
+        extractInput = Json.createObjectBuilder()
+                .add("Xml", SOAP)
+                .add("Amount", AMOUNT_XPATH)
+                .add("Status", STATUS_XPATH)
+                .build().toString();
+        validateInput = Json.createObjectBuilder()
+                .add("Xml", SOAP)
+                .add(AMOUNT_XPATH, "125.50")
+                .add(STATUS_XPATH, "open")
+                .build().toString();
+        replaceInput = Json.createObjectBuilder()
+                .add("Xml", SOAP)
+                .add(AMOUNT_XPATH, "99.90")
+                .build().toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Output<JsonObject> extractXml() throws Exception {
+        return ctx.run("Extract_XML", extractInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> validateXml() throws Exception {
+        return ctx.run("Validate_XML", validateInput);
+    }
+
+    @Benchmark
+    public Output<JsonObject> replaceXml() throws Exception {
+        return ctx.run("Replace_XML", replaceInput);
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.system;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing, xpath evaluation and serialization of a small SOAP payload with the per thread
+ * {@link XmlFactories} and with new JAXP factories on each call
+ * <p>
+ * Both variants run the same raw JAXP calls without the keyword input and output handling, so
+ * that the difference is the cost of the factory lookups and xpath compilations. The benchmark
+ * is in the package of the xml keywords to access the package private XmlFactories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlFactoriesBenchmark {
+
+    private static final String SOAP = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+            "<soap:Header/><soap:Body><getOrderResponse><order id=\"42\" status=\"open\">" +
+            "<customer>ACME</customer><amount currency=\"CHF\">125.50</amount>" +
+            "</order></getOrderResponse></soap:Body></soap:Envelope>";
+    private static final String AMOUNT_XPATH = "//order[@status='open']/amount";
+    private static final String STATUS_XPATH = "//order/@status";
+
+    @Benchmark
+    public String extractCachedFactories() throws Exception {
+        Document doc = XmlFactories.documentBuilder().parse(new InputSource(new StringReader(SOAP)));
+        NodeList amount = (NodeList) XmlFactories.compile(AMOUNT_XPATH).evaluate(doc, XPathConstants.NODESET);
+        NodeList status = (NodeList) XmlFactories.compile(STATUS_XPATH).evaluate(doc, XPathConstants.NODESET);
+        return amount.item(0).getTextContent() + status.item(0).getTextContent();
+    }
+
+    @Benchmark
+    public String extractFactoriesPerCall() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(SOAP)));
+        NodeList amount = (NodeList) XPathFactory.newInstance().newXPath().compile(AMOUNT_XPATH)
+                .evaluate(doc, XPathConstants.NODESET);
+        NodeList status = (NodeList) XPathFactory.newInstance().newXPath().compile(STATUS_XPATH)
+                .evaluate(doc, XPathConstants.NODESET);
+        return amount.item(0).getTextContent() + status.item(0).getTextContent();
+    }
+
+    @Benchmark
+    public String replaceCachedFactories() throws Exception {
+        Document doc = XmlFactories.documentBuilder().parse(new InputSource(new StringReader(SOAP)));
+        NodeList amount = (NodeList) XmlFactories.compile(AMOUNT_XPATH).evaluate(doc, XPathConstants.NODESET);
+        amount.item(0).setTextContent("99.90");
+        StringWriter writer = new StringWriter();
+        XmlFactories.transformer().transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String replaceFactoriesPerCall() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(SOAP)));
+        NodeList amount = (NodeList) XPathFactory.newInstance().newXPath().compile(AMOUNT_XPATH)
+                .evaluate(doc, XPathConstants.NODESET);
+        amount.item(0).setTextContent("99.90");
+        StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -18,12 +18,71 @@ package ch.exense.step.library.commons;
 import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.AbstractKeyword;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * An Enhanced Abstract keyword using the onError function for
  * managing business errors via exceptions
+ * <p>
+ * The startMeasure, stopMeasure and addMeasure helpers report the measures to the output
+ * as they are taken, the measure data being optional
  */
 public class AbstractEnhancedKeyword extends AbstractKeyword {
 
+    protected void startMeasure(String name) {
+        output.startMeasure(name);
+    }
+
+    /**
+     * Stop the last started measure
+     *
+     * @param data the measurement data, may be null
+     */
+    protected void stopMeasure(Map<String, Object> data) {
+        if (data != null) {
+            output.stopMeasure(data);
+        } else {
+            output.stopMeasure();
+        }
+    }
+
+    /**
+     * Add a measure which ended now
+     *
+     * @param data the measurement data, may be null
+     */
+    protected void addMeasure(String name, long durationMs, Map<String, Object> data) {
+        if (data != null) {
+            output.addMeasure(name, durationMs, data);
+        } else {
+            output.addMeasure(name, durationMs);
+        }
+    }
+
+    /**
+     * Add a measure which started at the given time
+     *
+     * @param data the measurement data, may be null
+     */
+    protected void addMeasure(String name, long begin, long durationMs, Map<String, Object> data) {
+        output.startMeasure(name, begin);
+        output.stopMeasure(begin + durationMs, data != null ? data : new HashMap<>());
+    }
+
+    /**
+     * Report a set of statistics (ex: cache or pool counters) both as measures and as outputs
+     *
+     * @param prefix     the prefix of the measure and output names, followed by an underscore
+     * @param statistics the values, by name
+     */
+    protected void addStatistics(String prefix, Map<String, ? extends Number> statistics) {
+        statistics.forEach((name, value) -> {
+            output.addMeasure(prefix + "_" + name, value.longValue());
+            output.add(prefix + "_" + name, value.longValue());
+        });
+    }
+
     @Override
     public boolean onError(Exception e) {
         if (e.getCause() != null && e.getCause() instanceof BusinessException) {
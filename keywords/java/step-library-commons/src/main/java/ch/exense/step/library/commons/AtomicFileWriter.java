@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * Replacement of the content of a file without ever exposing a partially written file
+ * <p>
+ * The new content is written to a temporary file of the same folder, which is then moved
+ * over the original file, atomically when the file system supports it. If the writing
+ * fails or is aborted, the original file is left untouched.
+ */
+public class AtomicFileWriter {
+
+    /**
+     * Writer of the new content of a file
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        /**
+         * @param temporaryFile the file to write the new content to
+         * @return true to replace the original file, false to abort and leave it unchanged
+         */
+        boolean write(File temporaryFile) throws Exception;
+    }
+
+    /**
+     * @param file          the file to replace
+     * @param contentWriter the writer of the new content
+     * @return true if the file was replaced, false if the writer aborted
+     */
+    public static boolean replace(File file, ContentWriter contentWriter) throws Exception {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(target.getParent(), "." + file.getName(), ".tmp");
+        try {
+            if (!contentWriter.write(temporary.toFile())) {
+                return false;
+            }
+            copyPermissions(target, temporary);
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        // temporary files are only readable by their owner
+        if (Files.getFileAttributeView(target, PosixFileAttributeView.class) != null) {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validation of a set of rules against many files, evaluated in parallel
+ * <p>
+ * The files are taken one by one by at most 'parallelism' workers of an agent wide fork-join
+ * pool having one thread per processor. The pool is reused by all validations, so that the
+ * per thread state of the evaluators (ex: parsers) is kept across calls. Each file is parsed once and all rules are evaluated on it, the
+ * expected values using the {@link ValueMatcher} notation. Unlike the single document
+ * validation keywords, all rules are evaluated even after a failure, in order to report
+ * the statistics of each rule.
+ */
+public class BatchValidator {
+
+    public static final String FAILURES_ATTACHMENT = "failures.txt";
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Evaluation of the rule paths on one file
+     */
+    @FunctionalInterface
+    public interface Evaluator {
+        /**
+         * @return the values found by each path, keyed by path
+         */
+        Map<String, List<String>> evaluate(File file) throws Exception;
+    }
+
+    private final String pathType;
+    private final Map<String, String> rules;
+    private final int parallelism;
+
+    /**
+     * @param pathType    the type of the rule paths, used in the error messages, ex: xpath
+     * @param rules       the expected values, keyed by path
+     * @param parallelism the maximum number of files evaluated concurrently, capped by the size of the pool
+     * @throws IllegalArgumentException if the parallelism is lower than 1
+     */
+    public BatchValidator(String pathType, Map<String, String> rules, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be greater than 0");
+        }
+        this.pathType = pathType;
+        this.rules = rules;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * List the files of a folder, or the files matching a glob pattern
+     *
+     * @param folderOrGlob a folder, ex: /data/responses, or a glob, ex: /data/responses/**&#47;*.xml
+     * @return the regular files, sorted by path
+     */
+    public static List<File> listFiles(String folderOrGlob) throws IOException {
+        File folder = new File(folderOrGlob);
+        if (folder.isDirectory()) {
+            try (Stream<Path> files = Files.list(folder.toPath())) {
+                return files.filter(Files::isRegularFile).sorted().map(Path::toFile).collect(Collectors.toList());
+            }
+        }
+
+        // the base folder is made of the leading segments without glob characters
+        String[] segments = folderOrGlob.replace('\\', '/').split("/", -1);
+        int baseSegments = 0;
+        while (baseSegments < segments.length - 1 && segments[baseSegments].chars().noneMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) {
+            baseSegments++;
+        }
+        String basePath = String.join("/", List.of(segments).subList(0, baseSegments));
+        Path base = Paths.get(baseSegments == 0 ? "." : basePath.isEmpty() ? "/" : basePath);
+        String pattern = String.join("/", List.of(segments).subList(baseSegments, segments.length));
+        if (!Files.isDirectory(base)) {
+            return new ArrayList<>();
+        }
+
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + pattern);
+        int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : segments.length - baseSegments;
+        try (Stream<Path> files = Files.walk(base, maxDepth)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(f -> matcher.matches(base.relativize(f)))
+                    .sorted().map(Path::toFile).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Evaluate the rules on all files
+     *
+     * @param files     the files to validate
+     * @param evaluator the evaluation of the rule paths on one file, called concurrently
+     * @return the outcome of the validation
+     */
+    public Result validate(List<File> files, Evaluator evaluator) {
+        Result result = new Result(rules.keySet());
+        AtomicInteger nextFile = new AtomicInteger();
+        int workers = Math.min(parallelism, files.size());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            tasks.add(pool.submit(() -> {
+                int index;
+                while ((index = nextFile.getAndIncrement()) < files.size()) {
+                    validate(files.get(index), evaluator, result);
+                }
+            }));
+        }
+        tasks.forEach(ForkJoinTask::join);
+        return result;
+    }
+
+    private void validate(File file, Evaluator evaluator, Result result) {
+        Map<String, List<String>> values;
+        try {
+            values = evaluator.evaluate(file);
+        } catch (Exception e) {
+            result.errors.increment();
+            result.failures.add(new Failure(file, null, e.getClass().getSimpleName() + ": " + e.getMessage()));
+            return;
+        }
+        boolean passed = true;
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            List<String> actualValues = values.getOrDefault(rule.getKey(), List.of());
+            String error = ValueMatcher.match(pathType, rule.getKey(), rule.getValue(), actualValues);
+            if (error == null) {
+                result.rules.get(rule.getKey()).passed.increment();
+            } else {
+                result.rules.get(rule.getKey()).failed.increment();
+                result.failures.add(new Failure(file, rule.getKey(), error));
+                passed = false;
+            }
+        }
+        (passed ? result.passed : result.failed).increment();
+    }
+
+    /**
+     * The failure of one rule on one file, or the error preventing the evaluation of a file
+     */
+    public static class Failure {
+
+        private final File file;
+        private final String rule;
+        private final String message;
+
+        private Failure(File file, String rule, String message) {
+            this.file = file;
+            this.rule = rule;
+            this.message = message;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the path of the failed rule, null if the file could not be evaluated
+         */
+        public String getRule() {
+            return rule;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static class RuleStatistics {
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+    }
+
+    /**
+     * The outcome of a batch validation. Counters are updated concurrently by the workers
+     */
+    public static class Result {
+
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final Map<String, RuleStatistics> rules = new LinkedHashMap<>();
+        private final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+        private Result(Iterable<String> rulePaths) {
+            // populated before the validation, only read concurrently
+            rulePaths.forEach(path -> rules.put(path, new RuleStatistics()));
+        }
+
+        public boolean isPassed() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * @return the number of files, keyed by Total, Passed, Failed and Errors (files which could not be evaluated)
+         */
+        public Map<String, Long> getFileStatistics() {
+            Map<String, Long> statistics = new LinkedHashMap<>();
+            statistics.put("Total", passed.sum() + failed.sum() + errors.sum());
+            statistics.put("Passed", passed.sum());
+            statistics.put("Failed", failed.sum());
+            statistics.put("Errors", errors.sum());
+            return statistics;
+        }
+
+        /**
+         * @return the number of files passing and failing each rule, keyed by rule path then by Passed and Failed
+         */
+        public Map<String, Map<String, Long>> getRuleStatistics() {
+            Map<String, Map<String, Long>> statistics = new LinkedHashMap<>();
+            rules.forEach((path, rule) -> {
+                Map<String, Long> ruleStatistics = new LinkedHashMap<>();
+                ruleStatistics.put("Passed", rule.passed.sum());
+                ruleStatistics.put("Failed", rule.failed.sum());
+                statistics.put(path, ruleStatistics);
+            });
+            return statistics;
+        }
+
+        /**
+         * @return the rule statistics as json, ex: {"//order/@id":{"Passed":10,"Failed":2}}
+         */
+        public String getRuleStatisticsAsJson() {
+            JsonObjectBuilder json = Json.createObjectBuilder();
+            getRuleStatistics().forEach((path, statistics) -> {
+                JsonObjectBuilder rule = Json.createObjectBuilder();
+                statistics.forEach((name, value) -> rule.add(name, value.longValue()));
+                json.add(path, rule);
+            });
+            return json.build().toString();
+        }
+
+        /**
+         * @return the description of the failed validation, ex: 2 of 10 files failed the validation
+         */
+        public String getErrorMessage() {
+            StringBuilder message = new StringBuilder();
+            long total = passed.sum() + failed.sum() + errors.sum();
+            message.append(failed.sum()).append(" of ").append(total).append(" files failed the validation");
+            if (errors.sum() > 0) {
+                message.append(", ").append(errors.sum()).append(" could not be evaluated");
+            }
+            return message.append(". See the attached ").append(FAILURES_ATTACHMENT).toString();
+        }
+
+        /**
+         * @return the failures, sorted by file
+         */
+        public List<Failure> getFailures() {
+            List<Failure> sorted = new ArrayList<>(failures);
+            sorted.sort(Comparator.comparing(Failure::getFile));
+            return sorted;
+        }
+
+        /**
+         * @return the failures as text, one line per failure: file, rule and message separated by tabs
+         */
+        public byte[] getFailuresReport() {
+            StringBuilder report = new StringBuilder("File\tRule\tMessage\n");
+            for (Failure failure : getFailures()) {
+                report.append(failure.getFile().getPath()).append('\t')
+                        .append(failure.getRule() != null ? failure.getRule() : "").append('\t')
+                        .append(failure.getMessage().replaceAll("[\n\r\t]+", " ")).append('\n');
+            }
+            return report.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
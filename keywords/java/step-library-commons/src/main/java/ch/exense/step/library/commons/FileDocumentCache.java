@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Agent wide cache of the documents parsed from files, bounded by the estimated heap size of the documents
+ * <p>
+ * The documents are keyed by canonical path, modification time and size: a modified file gets
+ * a new key and is parsed again, the outdated document being dropped. Concurrent misses on the
+ * same file version wait for a single load. The cached documents are shared by all keyword
+ * executions, they must be copied before being modified and accessed under lock if the document
+ * model is not thread safe for reads.
+ * <p>
+ * The heap size of a document is estimated by a {@link Weigher}, usually from the size of the
+ * file and a factor depending on the document model (a DOM tree takes several times the size
+ * of its file).
+ *
+ * @param <T> the type of the parsed documents
+ */
+public class FileDocumentCache<T> {
+
+    @FunctionalInterface
+    public interface Loader<T, E extends Exception> {
+        T load(File file) throws E;
+    }
+
+    @FunctionalInterface
+    public interface Weigher<T> {
+        /**
+         * @return the estimated heap size in bytes of the document parsed from the file
+         */
+        long weigh(File file, T document) throws IOException;
+    }
+
+    private record Key(String path, long lastModified, long size) {
+    }
+
+    private record Entry<T>(T document, long weight) {
+    }
+
+    private final LRUCache<Key, Entry<T>> cache;
+    private final Weigher<T> weigher;
+    // the key of the last loaded version of each file
+    private final Map<String, Key> currentKeys = new ConcurrentHashMap<>();
+    // the loads in progress, waited for by the concurrent misses on the same key
+    private final Map<Key, CompletableFuture<T>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxHeapBytes         the maximum estimated heap size of the cached documents
+     * @param heapBytesPerFileByte the estimated heap size of a document per byte of its file
+     */
+    public FileDocumentCache(long maxHeapBytes, int heapBytesPerFileByte) {
+        this(maxHeapBytes, (file, document) -> file.length() * heapBytesPerFileByte);
+    }
+
+    /**
+     * @param maxHeapBytes the maximum estimated heap size of the cached documents
+     * @param weigher      the function estimating the heap size of a document, called once when it is loaded
+     */
+    public FileDocumentCache(long maxHeapBytes, Weigher<T> weigher) {
+        this(maxHeapBytes, weigher, null);
+    }
+
+    /**
+     * @param maxHeapBytes the maximum estimated heap size of the cached documents
+     * @param weigher      the function estimating the heap size of a document, called once when it is loaded
+     * @param onRemoval    called with the documents evicted, replaced or invalidated, ex: to close them, may be null.
+     *                     A document heavier than the maximum is never cached nor passed to it
+     */
+    public FileDocumentCache(long maxHeapBytes, Weigher<T> weigher, Consumer<T> onRemoval) {
+        this.weigher = weigher;
+        cache = new LRUCache<>(maxHeapBytes, (key, entry) -> entry.weight(), (key, entry) -> {
+            currentKeys.remove(key.path(), key);
+            if (onRemoval != null) {
+                onRemoval.accept(entry.document());
+            }
+        });
+    }
+
+    /**
+     * Get the document parsed from the file, or load it. A single thread loads a given file
+     * version, the other threads missing it at the same time wait for its document
+     *
+     * @param file   the file
+     * @param loader the function parsing the file if its current version is not cached
+     * @return the shared document
+     */
+    public <E extends Exception> T get(File file, Loader<T, E> loader) throws IOException, E {
+        Key key = new Key(file.getCanonicalPath(), file.lastModified(), file.length());
+        Entry<T> entry = cache.get(key);
+        if (entry != null) {
+            return entry.document();
+        }
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> pendingLoad = loads.putIfAbsent(key, load);
+        if (pendingLoad != null) {
+            // a failed load is retried by each waiting thread, to get its own exception
+            T document = pendingLoad.exceptionally(e -> null).join();
+            return document != null ? document : loader.load(file);
+        }
+        try {
+            // the load may have completed between the cache lookup and the registration
+            entry = cache.get(key);
+            T document = entry != null ? entry.document() : load(key, file, loader);
+            load.complete(document);
+            return document;
+        } catch (Throwable e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    private <E extends Exception> T load(Key key, File file, Loader<T, E> loader) throws IOException, E {
+        T document = loader.load(file);
+        cache.put(key, new Entry<>(document, weigher.weigh(file, document)));
+        Key previous = currentKeys.put(key.path(), key);
+        if (previous != null && !previous.equals(key)) {
+            cache.invalidate(previous);
+        }
+        return document;
+    }
+
+    /**
+     * Drop the document of the given file, ex: after the file has been written
+     */
+    public void invalidate(File file) throws IOException {
+        Key key = currentKeys.remove(file.getCanonicalPath());
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the cache counters, see {@link LRUCache#getStatistics()}. The weight is the estimated heap size
+     * in bytes of the cached documents
+     */
+    public Map<String, Long> getStatistics() {
+        return cache.getStatistics();
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Evaluation of json paths on a document parsed once
+ * <p>
+ * The compiled json paths are cached and shared by all keywords of the agent, as is
+ * the object mapper used to serialize the extracted values. A new evaluator is created
+ * for each document and all paths of a keyword call are evaluated on the same parsed
+ * document, so that the cost of extracting N values is one parse and N lookups.
+ * An evaluator is not thread safe, the shared components are.
+ */
+public class JsonEvaluator {
+
+    private static final int PATH_CACHE_SIZE = 1000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter writer = mapper.writer();
+    private static final LRUCache<String, JsonPath> pathCache = new LRUCache<>(PATH_CACHE_SIZE);
+
+    private final DocumentContext document;
+
+    /**
+     * @param json          the json content to parse
+     * @param configuration the json path configuration, defining the options and the json provider
+     */
+    public JsonEvaluator(String json, Configuration configuration) {
+        this.document = JsonPath.using(configuration).parse(json);
+    }
+
+    /**
+     * @param json          the json document already parsed by the json provider of the configuration
+     * @param configuration the json path configuration, defining the options and the json provider
+     */
+    public JsonEvaluator(Object json, Configuration configuration) {
+        this.document = JsonPath.using(configuration).parse(json);
+    }
+
+    /**
+     * @return the compiled json path, from the cache
+     * @throws com.jayway.jsonpath.InvalidPathException if the path is invalid
+     */
+    public static JsonPath compile(String path) {
+        return pathCache.computeIfAbsent(path, JsonPath::compile);
+    }
+
+    public <T> T read(String path) {
+        return document.read(compile(path));
+    }
+
+    public void set(String path, Object value) {
+        document.set(compile(path), value);
+    }
+
+    public String jsonString() {
+        return document.jsonString();
+    }
+
+    /**
+     * @return the value serialized as json with the shared object mapper
+     */
+    public static String toJson(Object value) throws JsonProcessingException {
+        return writer.writeValueAsString(value);
+    }
+
+    /**
+     * @return the values serialized as a json array, ex: [{"a":1},{"a":5}]
+     */
+    public static String toJsonList(Collection<?> values) throws JsonProcessingException {
+        StringBuilder json = new StringBuilder("[");
+        for (Object value : values) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(writer.writeValueAsString(value));
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * @return the shared object mapper, which must not be reconfigured
+     */
+    public static ObjectMapper getObjectMapper() {
+        return mapper;
+    }
+
+    /**
+     * @return the statistics of the compiled json path cache, see {@link LRUCache#getStatistics()}
+     */
+    public static Map<String, Long> getStatistics() {
+        return pathCache.getStatistics();
+    }
+}
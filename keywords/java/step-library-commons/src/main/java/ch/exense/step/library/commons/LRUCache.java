@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A thread safe cache bounded by a maximum weight, evicting the least recently
+ * used entries first
+ * <p>
+ * By default each entry weighs 1, the maximum weight being then the maximum
+ * number of entries. Hits, misses and evictions are counted so that keywords
+ * can report the efficiency of their caches as measures.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class LRUCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private final ToLongBiFunction<K, V> weigher;
+    private final BiConsumer<K, V> removalListener;
+    private long weight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries the maximum number of entries
+     */
+    public LRUCache(long maxEntries) {
+        this(maxEntries, (k, v) -> 1, null);
+    }
+
+    /**
+     * @param maxWeight       the maximum total weight of the entries
+     * @param weigher         the function computing the weight of an entry
+     * @param removalListener called with the entries evicted, replaced or invalidated, may be null
+     */
+    public LRUCache(long maxWeight, ToLongBiFunction<K, V> weigher, BiConsumer<K, V> removalListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * @return the cached value, or null if not cached
+     */
+    public V get(K key) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    /**
+     * Get the cached value or compute it. The computation is done outside of the
+     * cache lock: concurrent misses on the same key may compute the value
+     * more than once, the last computed value being kept
+     *
+     * @param key             the key
+     * @param mappingFunction the function computing the value if not cached
+     * @return the cached or computed value
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        List<Map.Entry<K, V>> removed = new ArrayList<>();
+        long valueWeight = weigher.applyAsLong(key, value);
+        synchronized (this) {
+            if (valueWeight > maxWeight) {
+                // never cached, but an outdated value must not remain
+                V previous = entries.remove(key);
+                if (previous != null) {
+                    weight -= weigher.applyAsLong(key, previous);
+                    removed.add(Map.entry(key, previous));
+                }
+            } else {
+                V previous = entries.put(key, value);
+                weight += valueWeight;
+                if (previous != null) {
+                    weight -= weigher.applyAsLong(key, previous);
+                    if (previous != value) {
+                        removed.add(Map.entry(key, previous));
+                    }
+                }
+                Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+                while (weight > maxWeight && iterator.hasNext()) {
+                    Map.Entry<K, V> eldest = iterator.next();
+                    iterator.remove();
+                    weight -= weigher.applyAsLong(eldest.getKey(), eldest.getValue());
+                    removed.add(eldest);
+                    evictions.increment();
+                }
+            }
+        }
+        notifyRemoval(removed);
+    }
+
+    public void invalidate(K key) {
+        V previous;
+        synchronized (this) {
+            previous = entries.remove(key);
+            if (previous != null) {
+                weight -= weigher.applyAsLong(key, previous);
+            }
+        }
+        if (previous != null) {
+            notifyRemoval(List.of(Map.entry(key, previous)));
+        }
+    }
+
+    public void clear() {
+        List<Map.Entry<K, V>> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.entrySet());
+            entries.clear();
+            weight = 0;
+        }
+        notifyRemoval(removed);
+    }
+
+    private void notifyRemoval(List<Map.Entry<K, V>> removed) {
+        if (removalListener != null) {
+            removed.forEach(e -> removalListener.accept(e.getKey(), e.getValue()));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the cache counters, keyed by Hits, Misses, Evictions, Size and Weight
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("Hits", getHits());
+        statistics.put("Misses", getMisses());
+        statistics.put("Evictions", getEvictions());
+        statistics.put("Size", (long) size());
+        statistics.put("Weight", getWeight());
+        return statistics;
+    }
+}
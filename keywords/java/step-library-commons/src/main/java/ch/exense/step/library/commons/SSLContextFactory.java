@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Agent wide factory of the SSL contexts used by the keywords, trusting all server certificates
+ * <p>
+ * Loading a key store and initializing an SSL context is expensive, the contexts are therefore
+ * cached by protocol, key store path, key store modification time and password hash. As the
+ * client session cache belongs to the SSL context, reusing the same context also allows the
+ * TLS sessions to be resumed with an abbreviated handshake across keyword sessions.
+ */
+public class SSLContextFactory {
+
+    private static final int MAX_CONTEXTS = 64;
+    private static final int SESSION_CACHE_SIZE = 20000;
+    private static final int SESSION_TIMEOUT_S = 3600;
+
+    private static final LRUCache<String, SSLContext> contextCache = new LRUCache<>(MAX_CONTEXTS);
+
+    private static final TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return null;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+        }
+    }};
+
+    /**
+     * Get the cached SSL context for the given protocol and key store, or create it
+     *
+     * @param protocol     the SSL protocol, ex: TLS
+     * @param keyStorePath the path of the JKS key store providing the client certificates, may be null
+     * @param password     the password of the key store, may be null
+     * @return the shared SSL context
+     */
+    public static SSLContext getSSLContext(String protocol, String keyStorePath, String password) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, IOException, UnrecoverableKeyException, KeyManagementException {
+        boolean withKeyStore = keyStorePath != null && password != null;
+        String key = withKeyStore ? buildKey(protocol, keyStorePath, password) : protocol;
+        SSLContext sslContext = contextCache.get(key);
+        if (sslContext == null) {
+            // concurrent misses may create the context twice, the last one being kept
+            sslContext = createSSLContext(protocol, withKeyStore ? keyStorePath : null, password);
+            contextCache.put(key, sslContext);
+        }
+        return sslContext;
+    }
+
+    private static String buildKey(String protocol, String keyStorePath, String password)
+            throws IOException, NoSuchAlgorithmException {
+        return protocol + "|" + getKeyStoreKey(keyStorePath, password);
+    }
+
+    /**
+     * Build the key identifying the given key store content, for the caches holding objects
+     * created from it
+     *
+     * @param keyStorePath the path of the JKS key store, may be null
+     * @param password     the password of the key store, may be null
+     * @return the canonical path, modification time, size and password hash of the key store
+     */
+    public static String getKeyStoreKey(String keyStorePath, String password) throws IOException, NoSuchAlgorithmException {
+        if (keyStorePath == null || password == null) {
+            return "none";
+        }
+        File keyStoreFile = new File(keyStorePath);
+        byte[] passwordHash = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+        // a modified key store gets a new key and is reloaded
+        return keyStoreFile.getCanonicalPath() + "|" + keyStoreFile.lastModified() + "|"
+                + keyStoreFile.length() + "|" + HexFormat.of().formatHex(passwordHash);
+    }
+
+    private static SSLContext createSSLContext(String protocol, String keyStorePath, String password) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, IOException, UnrecoverableKeyException, KeyManagementException {
+        KeyManager[] keyManagers;
+        if (keyStorePath != null) {
+            KeyStore keyStore = KeyStore.getInstance("jks");
+            try (InputStream instream = new FileInputStream(keyStorePath)) {
+                keyStore.load(instream, password.toCharArray());
+            }
+            KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyFactory.init(keyStore, password.toCharArray());
+            keyManagers = keyFactory.getKeyManagers();
+        } else {
+            keyManagers = new KeyManager[0];
+        }
+
+        SSLContext sslContext = SSLContext.getInstance(protocol);
+        sslContext.init(keyManagers, trustAllCerts, new SecureRandom());
+        sslContext.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_S);
+        return sslContext;
+    }
+
+    /**
+     * @return the statistics of the SSL context cache, see {@link LRUCache#getStatistics()}
+     */
+    public static Map<String, Long> getStatistics() {
+        return contextCache.getStatistics();
+    }
+
+    /**
+     * Drop all cached SSL contexts, and with them the cached TLS sessions
+     */
+    public static void clear() {
+        contextCache.clear();
+    }
+}
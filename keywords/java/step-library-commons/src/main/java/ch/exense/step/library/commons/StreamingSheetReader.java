@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+/**
+ * Reader of the rows of a XLSX sheet based on the POI event model
+ * <p>
+ * The sheet is parsed with SAX and each row is handed over as soon as it has been read, so that
+ * the memory used does not depend on the number of rows. The values are formatted like in Excel,
+ * using the cached results of the formulas, which are not evaluated. Shared by the keyword modules
+ * reading XLSX files, which provide POI.
+ */
+public class StreamingSheetReader {
+
+    /**
+     * Receiver of the rows read
+     */
+    @FunctionalInterface
+    public interface RowHandler<E extends Exception> {
+        /**
+         * @param rowNum the 0-based row number
+         * @param cells  the formatted values of the non-empty selected cells, keyed by 0-based column index in column order
+         */
+        void row(int rowNum, Map<Integer, String> cells) throws E;
+    }
+
+    private final int firstRow;
+    private final int lastRow;
+    private final BitSet columns;
+
+    /**
+     * @param firstRow the first row to read, 0-based
+     * @param lastRow  the last row to read, 0-based and inclusive
+     * @param columns  the 0-based indexes of the columns to read, null to read all columns
+     */
+    public StreamingSheetReader(int firstRow, int lastRow, BitSet columns) {
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.columns = columns;
+    }
+
+    /**
+     * Read the rows of a sheet
+     *
+     * @param workbookFile the XLSX file
+     * @param sheetName    the name of the sheet, null for the first sheet
+     * @param handler      the receiver of the rows
+     */
+    public <E extends Exception> void read(File workbookFile, String sheetName, RowHandler<E> handler) throws IOException, E {
+        try (OPCPackage pkg = OPCPackage.open(workbookFile, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    if (sheetName == null || sheetName.equals(sheets.getSheetName())) {
+                        readSheet(sheet, styles, strings, handler);
+                        return;
+                    }
+                }
+            }
+            throw new BusinessException("The sheet " + sheetName + " doesn't exist");
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new BusinessException("The file " + workbookFile + " is not a valid XLSX workbook: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the first non-empty selected row of a sheet only, ex: its header
+     *
+     * @param workbookFile the XLSX file
+     * @param sheetName    the name of the sheet, null for the first sheet
+     * @param handler      the receiver of the row, not called if the selected rows are all empty
+     */
+    public <E extends Exception> void readFirstRow(File workbookFile, String sheetName, RowHandler<E> handler) throws IOException, E {
+        read(workbookFile, sheetName, (rowNum, cells) -> {
+            handler.row(rowNum, cells);
+            throw new StopReading();
+        });
+    }
+
+    private <E extends Exception> void readSheet(InputStream sheet, StylesTable styles, ReadOnlySharedStringsTable strings,
+                                                 RowHandler<E> handler) throws IOException, SAXException, ParserConfigurationException, E {
+        RowCollector<E> collector = new RowCollector<>(handler);
+        XMLReader parser = XMLHelper.newXMLReader();
+        // a single formatter for the whole sheet, it caches the parsed formats
+        parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, collector, new DataFormatter(), false));
+        try {
+            parser.parse(new InputSource(sheet));
+        } catch (StopReading e) {
+            // the last requested row has been read
+        } catch (HandlerException e) {
+            throw e.<E>getHandlerCause();
+        }
+    }
+
+    /**
+     * @return the 0-based index of the column of a cell reference, ex: 2 for C12
+     */
+    private static int columnIndex(String cellReference) {
+        int column = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    /**
+     * Parse a column selection, ex: A,C:E
+     *
+     * @return the 0-based indexes of the selected columns
+     */
+    public static BitSet parseColumns(String columns) {
+        BitSet selection = new BitSet();
+        for (String range : columns.split(",")) {
+            String[] bounds = range.trim().toUpperCase().split(":");
+            int from = CellReference.convertColStringToIndex(bounds[0].trim());
+            int to = bounds.length > 1 ? CellReference.convertColStringToIndex(bounds[1].trim()) : from;
+            if (from < 0 || to < from) {
+                throw new BusinessException("Invalid column selection '" + columns + "'");
+            }
+            selection.set(from, to + 1);
+        }
+        return selection;
+    }
+
+    private class RowCollector<E extends Exception> implements SheetContentsHandler {
+
+        private final RowHandler<E> handler;
+        private Map<Integer, String> cells;
+        private boolean selected;
+
+        private RowCollector(RowHandler<E> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            if (rowNum > lastRow) {
+                throw new StopReading();
+            }
+            selected = rowNum >= firstRow;
+            cells = new LinkedHashMap<>();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (selected && !cells.isEmpty()) {
+                try {
+                    handler.row(rowNum, cells);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new HandlerException(e);
+                }
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            if (selected && cellReference != null) {
+                int column = columnIndex(cellReference);
+                if (columns == null || columns.get(column)) {
+                    cells.put(column, formattedValue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown by the handler to stop the parsing once the last requested row has been read
+     */
+    private static class StopReading extends RuntimeException {
+        private StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Carries the checked exceptions of the row handler through the SAX parser
+     */
+    private static class HandlerException extends RuntimeException {
+        private HandlerException(Exception cause) {
+            super(cause);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <E extends Exception> E getHandlerCause() {
+            // only the exceptions declared by the handler are wrapped
+            return (E) getCause();
+        }
+    }
+}
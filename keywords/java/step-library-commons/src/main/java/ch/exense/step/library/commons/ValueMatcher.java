@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.commons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Comparison of the values found by a path (xpath, json path...) with an expected value
+ * <p>
+ * The expected value uses the following notation:
+ * - by default, the path must match a unique value equal to the expected value
+ * - [value1,value2]: the path must match exactly these values, in any order
+ * - [value1,value2,...]: the path must match at least these values
+ * - [value*]: all values matched by the path must be equal to value
+ * - .*: the path must match at least one value
+ * - !.*: the path must not match any value
+ */
+public class ValueMatcher {
+
+    public static final String PRESENT = ".*";
+    public static final String ABSENT = "!.*";
+
+    /**
+     * @param pathType     the type of path, used in the error messages, ex: xpath
+     * @param path         the path which was evaluated
+     * @param expected     the expected value
+     * @param actualValues the values found by the path
+     * @return null if the values match the expected value, the description of the mismatch otherwise
+     */
+    public static String match(String pathType, String path, String expected, List<String> actualValues) {
+        String pathTypeCapitalized = Character.toUpperCase(pathType.charAt(0)) + pathType.substring(1);
+        // case: test the absence of an node
+        if (expected.equals(ABSENT)) {
+            if (actualValues.size() > 0) {
+                return pathTypeCapitalized + " '" + path + "' was not expected to be found in the document";
+            }
+            return null;
+        }
+        // case: at least an node exist:
+        if (actualValues.size() == 0) {
+            return pathTypeCapitalized + " '" + path + "' not found in the document";
+        }
+
+        // case: testing the presence
+        if (expected.equals(PRESENT)) {
+            return null;
+        }
+        // case: list of values
+        else if (expected.startsWith("[") && expected.endsWith("]")) {
+            boolean exactCount = true;
+            List<String> expectedValues;
+            //only check the presence of the values given:
+            if (expected.endsWith(",...]")) {
+                exactCount = false;
+                expectedValues = Arrays.asList(expected.substring(1, expected.length() - ",...]".length()).split(","));
+            }
+            // Consider all values to be equals:
+            else if (expected.endsWith("*]") && !expected.contains(",")) {
+                expectedValues = Collections.nCopies(actualValues.size(), expected.substring(1, expected.length() - "*]".length()));
+            }
+            // Otherwise split by ","
+            else {
+                expectedValues = Arrays.asList(expected.substring(1, expected.length() - 1).split(","));
+            }
+            if (exactCount && expectedValues.size() != actualValues.size()) {
+                return "Error when comparing " + pathType + " '" + path + "': "
+                        + expectedValues.size() + " values were expected, " + actualValues.size() + " were found.\n"
+                        + "Use the " + expected.substring(0, expected.length() - 1) + ",...] notation to only validate a subset of values"
+                        + " or the " + expected.substring(0, expected.length() - 1) + "*] notation to test that all values are expected to be the same";
+            }
+            String actualValuesString = actualValues.toString();
+            // each expected value consumes one actual value
+            List<String> remainingValues = new ArrayList<>(actualValues);
+            for (String value : expectedValues) {
+                if (!remainingValues.remove(value)) {
+                    return "Error when comparing " + pathType + " '" + path + "': "
+                            + "value '" + value + "' was not found. Expected was '" + expectedValues + "' and actual values were '" + actualValuesString + "'";
+                }
+            }
+        }
+        // case: one value
+        else if (actualValues.size() == 1) {
+            String result = actualValues.get(0);
+            if (!result.equals(expected)) {
+                return "Error when comparing " + pathType + " '" + path
+                        + "value was expected to be: '" + expected + "' but was '" + result + "'";
+            }
+        } else {
+            return "Error when comparing " + pathType + " '" + path + "': "
+                    + "the " + pathType + " was supposed to be unique, but was found " + actualValues.size() + " times.\n"
+                    + "Use the [" + expected + ",...] notation to validate the presence of one value"
+                    + " or the [" + expected + "*] notation to test that all values are expected to be the same";
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the expected value only tests the presence or the absence of the path
+     */
+    public static boolean isPresenceCheck(String expected) {
+        return expected.equals(PRESENT) || expected.equals(ABSENT);
+    }
+}
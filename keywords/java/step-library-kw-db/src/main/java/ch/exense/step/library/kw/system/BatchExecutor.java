@@ -0,0 +1,115 @@
+package ch.exense.step.library.kw.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Execution of a prepared statement for many rows, by batches, with periodic commits
+ * <p>
+ * The parameters of each row are bound to the statement by the caller before calling {@link #addRow()}.
+ * The connection is switched to manual commit for the duration of the execution.
+ */
+class BatchExecutor implements AutoCloseable {
+
+    @FunctionalInterface
+    interface BatchListener {
+        /**
+         * @param begin      the begin of the execution of the batch, as epoch milliseconds
+         * @param durationMs the duration of the execution of the batch
+         * @param rows       the number of rows of the batch
+         */
+        void batchExecuted(long begin, long durationMs, int rows);
+    }
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final int batchSize;
+    private final long commitInterval;
+    private final BatchListener listener;
+    private final boolean autoCommit;
+
+    private int pendingRows = 0;
+    private long rows = 0;
+    private long batches = 0;
+    private long committedRows = 0;
+
+    /**
+     * @param batchSize      the number of rows sent to the database at once
+     * @param commitInterval the number of rows after which the transaction is committed, 0 to commit once at the end.
+     *                       The commits occur after the execution of a batch
+     */
+    BatchExecutor(Connection connection, PreparedStatement statement, int batchSize, long commitInterval,
+                  BatchListener listener) throws SQLException {
+        this.connection = connection;
+        this.statement = statement;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+        this.listener = listener;
+        this.autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Add the row whose parameters have been bound to the statement
+     */
+    void addRow() throws SQLException {
+        statement.addBatch();
+        rows++;
+        if (++pendingRows == batchSize) {
+            executeBatch();
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        long begin = System.currentTimeMillis();
+        statement.executeBatch();
+        listener.batchExecuted(begin, System.currentTimeMillis() - begin, pendingRows);
+        batches++;
+        pendingRows = 0;
+        if (commitInterval > 0 && rows - committedRows >= commitInterval) {
+            commit();
+        }
+    }
+
+    private void commit() throws SQLException {
+        connection.commit();
+        committedRows = rows;
+    }
+
+    /**
+     * Execute the last batch and commit
+     */
+    void finish() throws SQLException {
+        if (pendingRows > 0) {
+            executeBatch();
+        }
+        commit();
+    }
+
+    /**
+     * Roll the uncommitted rows back and restore the commit mode of the connection, after a failure or not
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (committedRows < rows) {
+                connection.rollback();
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getBatches() {
+        return batches;
+    }
+
+    long getCommittedRows() {
+        return committedRows;
+    }
+}
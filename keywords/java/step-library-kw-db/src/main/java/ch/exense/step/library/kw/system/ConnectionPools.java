@@ -0,0 +1,143 @@
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.BusinessException;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Agent wide JDBC connection pools, keyed by connection string, user and password hash
+ * <p>
+ * A pool is created with the settings of the first keyword using it and kept until it is closed, a keyword
+ * requesting other settings for the same pool failing. A changed password gets a new pool, the pool of the
+ * previous password being kept until it is closed. The connections are borrowed for the duration of one
+ * keyword execution: they are only validated when they have been idle for a while, and kept alive in the
+ * background by the pool.
+ */
+public class ConnectionPools {
+
+    /**
+     * The pool settings, the durations being in milliseconds. The statement cache size is the number of prepared
+     * statements cached by the driver for each connection, 0 to disable the cache
+     */
+    public record Settings(int minSize, int maxSize, long idleTimeoutMs, long validationIntervalMs, long connectionTimeoutMs,
+                           int statementCacheSize) {
+    }
+
+    private record Key(String connectionString, String username, String passwordHash) {
+    }
+
+    private record Pool(HikariDataSource dataSource, Settings settings) {
+    }
+
+    private static final Map<Key, Pool> pools = new ConcurrentHashMap<>();
+
+    private ConnectionPools() {
+    }
+
+    /**
+     * Get the pool of a database and credentials, or create it with the given settings
+     *
+     * @param username the user, null if the credentials are part of the connection string
+     * @throws BusinessException if the pool exists with other settings
+     */
+    public static HikariDataSource get(String connectionString, String username, String password, Settings settings) {
+        Pool pool = pools.computeIfAbsent(new Key(connectionString, username, hash(password)), k -> {
+            HikariConfig config = new HikariConfig();
+            config.setPoolName("step-" + pools.size());
+            config.setJdbcUrl(connectionString);
+            if (username != null) {
+                config.setUsername(username);
+                config.setPassword(password);
+            }
+            config.setMinimumIdle(settings.minSize());
+            config.setMaximumPoolSize(settings.maxSize());
+            config.setIdleTimeout(settings.idleTimeoutMs());
+            config.setKeepaliveTime(settings.validationIntervalMs());
+            config.setConnectionTimeout(settings.connectionTimeoutMs());
+            // the pool is created without connecting, so that an unreachable database is reported by the keyword borrowing a connection
+            config.setInitializationFailTimeout(-1);
+            configureStatementCache(config, connectionString, settings.statementCacheSize());
+            return new Pool(new HikariDataSource(config), settings);
+        });
+        if (!pool.settings().equals(settings)) {
+            throw new BusinessException("The connection pool of " + connectionString + " has been created with the settings "
+                    + pool.settings() + ", it must be closed before being used with the settings " + settings);
+        }
+        return pool.dataSource();
+    }
+
+    /**
+     * Close the pools of a database and user, whatever their password, and their connections
+     *
+     * @return true if a pool existed
+     */
+    public static boolean close(String connectionString, String username) {
+        boolean closed = false;
+        Iterator<Map.Entry<Key, Pool>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Pool> entry = iterator.next();
+            Key key = entry.getKey();
+            if (key.connectionString().equals(connectionString) && Objects.equals(key.username(), username)) {
+                iterator.remove();
+                entry.getValue().dataSource().close();
+                closed = true;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * @return the number of active, idle and total connections and of threads waiting for a connection
+     */
+    public static Map<String, Integer> getStatistics(HikariDataSource pool) {
+        HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+        Map<String, Integer> statistics = new LinkedHashMap<>();
+        statistics.put("Active", bean.getActiveConnections());
+        statistics.put("Idle", bean.getIdleConnections());
+        statistics.put("Total", bean.getTotalConnections());
+        statistics.put("Waiting", bean.getThreadsAwaitingConnection());
+        return statistics;
+    }
+
+    /**
+     * Cache the prepared statements in the driver of each physical connection, closing a statement through the
+     * pool proxy returning it to the cache. The statements are thus tracked and closed by the pool when the
+     * connection is returned, and never shared between the borrowers of a connection
+     */
+    private static void configureStatementCache(HikariConfig config, String connectionString, int statementCacheSize) {
+        String size = Integer.toString(statementCacheSize);
+        if (connectionString.startsWith("jdbc:mysql:") || connectionString.startsWith("jdbc:mariadb:")) {
+            config.addDataSourceProperty("cachePrepStmts", Boolean.toString(statementCacheSize > 0));
+            config.addDataSourceProperty("prepStmtCacheSize", size);
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            config.addDataSourceProperty("useServerPrepStmts", Boolean.toString(statementCacheSize > 0));
+        } else if (connectionString.startsWith("jdbc:postgresql:")) {
+            config.addDataSourceProperty("preparedStatementCacheQueries", size);
+        } else if (connectionString.startsWith("jdbc:oracle:")) {
+            config.addDataSourceProperty("oracle.jdbc.implicitStatementCacheSize", size);
+        }
+    }
+
+    private static String hash(String password) {
+        if (password == null) {
+            return "none";
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
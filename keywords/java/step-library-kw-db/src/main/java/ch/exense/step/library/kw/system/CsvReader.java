@@ -0,0 +1,92 @@
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.BusinessException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of the records of a CSV content, one record at a time
+ * <p>
+ * The fields may be quoted, a quoted field holding delimiters, line breaks or doubled quotes. The empty
+ * fields which are not quoted are returned as null, so that they can be bound as SQL NULL. Blank lines
+ * are skipped.
+ */
+class CsvReader implements Closeable {
+
+    private final Reader reader;
+    private final char delimiter;
+    private long line = 1;
+
+    CsvReader(Reader reader, char delimiter) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader, 64 * 1024);
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * @return the fields of the next record, null at the end of the content
+     */
+    List<String> next() throws IOException {
+        List<String> fields;
+        do {
+            fields = readRecord();
+        } while (fields != null && fields.size() == 1 && fields.get(0) == null);
+        return fields;
+    }
+
+    private List<String> readRecord() throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new BusinessException("Unterminated quoted field at line " + line + " of the CSV content");
+                }
+                if (c == '"') {
+                    int next = reader.read();
+                    if (next != '"') {
+                        inQuotes = false;
+                        c = next;
+                        continue;
+                    }
+                } else if (c == '\n') {
+                    line++;
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(value(field, quoted));
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '\n' || c == -1) {
+                line++;
+                fields.add(value(field, quoted));
+                return fields;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    private static String value(StringBuilder field, boolean quoted) {
+        return field.length() == 0 && !quoted ? null : field.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
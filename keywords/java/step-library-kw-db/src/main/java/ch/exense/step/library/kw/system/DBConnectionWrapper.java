@@ -7,6 +7,7 @@ import java.sql.SQLException;
 public class DBConnectionWrapper implements Closeable {
 
     private final Connection connection;
+    private StatementCache statementCache;
 
     public DBConnectionWrapper(Connection connection) {
         this.connection = connection;
@@ -16,9 +17,23 @@ public class DBConnectionWrapper implements Closeable {
         return connection;
     }
 
+    /**
+     * @param maxStatements the maximum number of cached statements, applied when the cache is created
+     * @return the cache of the prepared statements of the connection, closed with it
+     */
+    StatementCache getStatementCache(int maxStatements) {
+        if (statementCache == null) {
+            statementCache = new StatementCache(connection, maxStatements);
+        }
+        return statementCache;
+    }
+
     @Override
     public void close() {
         try {
+            if (statementCache != null) {
+                statementCache.close();
+            }
             connection.close();
         } catch (SQLException exception) {
             throw new RuntimeException("Unable to close SQL connection", exception);
@@ -1,27 +1,66 @@
 package ch.exense.step.library.kw.system;
 
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
+import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.StreamingSheetReader;
+import com.zaxxer.hikari.HikariDataSource;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObjectBuilder;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.Keyword;
 
+import javax.json.JsonArray;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class DatabaseKeywords extends AbstractEnhancedKeyword {
 
+    private static final String POOL_OPT = "Pool";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    // the pool settings are applied when the pool of a database and credentials is created by its first use,
+    // a keyword requesting other settings for an existing pool fails
+    private static final String POOL_SCHEMA = "\"" + POOL_OPT + "\":{\"type\":\"boolean\"},"
+            + "\"PoolMinSize\":{\"type\":\"integer\"},"
+            + "\"PoolMaxSize\":{\"type\":\"integer\"},"
+            + "\"PoolIdleTimeout_ms\":{\"type\":\"integer\"},"
+            + "\"PoolValidationInterval_ms\":{\"type\":\"integer\"},"
+            + "\"PoolConnectionTimeout_ms\":{\"type\":\"integer\"}";
+
+    /**
+     * Get the connection of the session, or borrow one from the agent wide pool of the database
+     * if the Pool input is true. A borrowed connection must be released at the end of the keyword
+     */
     private Connection getConnection() throws SQLException {
+        if (input.getBoolean(POOL_OPT, false)) {
+            return borrowConnection();
+        }
         DBConnectionWrapper dbConnectionWrapper = session.get(DBConnectionWrapper.class);
         //if there is no connection yet, the connections has been closed or became invalid
         if (dbConnectionWrapper == null || dbConnectionWrapper.getConnection().isClosed() ||
                 !dbConnectionWrapper.getConnection().isValid(3)) {
             //close if previous is invalid
             if (dbConnectionWrapper != null && !dbConnectionWrapper.getConnection().isClosed()) {
-                dbConnectionWrapper.getConnection().close();
+                dbConnectionWrapper.close();
             }
             String connectionString = input.getString("ConnectionString");
             String username = input.getString("Username");
@@ -39,52 +78,596 @@ public class DatabaseKeywords extends AbstractEnhancedKeyword {
         return dbConnectionWrapper.getConnection();
     }
 
+    private Connection borrowConnection() throws SQLException {
+        String connectionString = input.getString("ConnectionString");
+        String username = input.getString("Username", null);
+        String password = username != null ? getPassword(username) : null;
+        ConnectionPools.Settings settings = new ConnectionPools.Settings(
+                input.getInt("PoolMinSize", 0),
+                input.getInt("PoolMaxSize", 10),
+                input.getInt("PoolIdleTimeout_ms", 600000),
+                input.getInt("PoolValidationInterval_ms", 120000),
+                input.getInt("PoolConnectionTimeout_ms", 30000),
+                input.getInt("StatementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE));
+        HikariDataSource pool = ConnectionPools.get(connectionString, username, password, settings);
+
+        long begin = System.currentTimeMillis();
+        Connection connection;
+        try {
+            connection = pool.getConnection();
+        } catch (SQLTransientConnectionException e) {
+            throw new BusinessException("No connection available in the pool of " + connectionString
+                    + " after " + settings.connectionTimeoutMs() + "ms: " + e.getMessage(), e);
+        }
+        addMeasure("ConnectionPool_WaitTime", begin, System.currentTimeMillis() - begin, null);
+        addStatistics("ConnectionPool", ConnectionPools.getStatistics(pool));
+        return connection;
+    }
+
+    /**
+     * Return a borrowed connection to the pool, the connection of the session being kept open
+     */
+    private void releaseConnection(Connection connection) throws SQLException {
+        if (input.getBoolean(POOL_OPT, false)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Execute a query. If Parameters is set, a json array of values like ["root", 10, {"Type":"date","Value":"2024-01-31"}],
+     * the query is executed as a prepared statement whose ? placeholders are bound to the values. The prepared statements
+     * are cached per connection, up to StatementCacheSize statements (64 by default, 0 to disable the cache): by the
+     * keyword for the connection of the session, by the driver for the pooled connections of MySQL, PostgreSQL and Oracle
+     * <p>
+     * If Export is set to csv or jsonl, the rows are streamed to ExportFile, or to an attachment if ExportFile is not
+     * set, instead of being returned as ResultAsJson. The rows are then fetched from the database by FetchSize rows
+     * (1000 by default) and all rows are exported unless ResultLimit is set. On PostgreSQL, the query is executed in
+     * a transaction for the fetch size to be applied; with MySQL, add useCursorFetch=true to the connection string.
+     * Only the export to a file is done with a constant memory, the attachment being built in memory.
+     * <p>
+     * The execution is reported as a measure named by the Name input ("Query" by default) with the number of rows and
+     * bytes returned, broken down into the Name_Connection (getting the connection), Name_Execution (executing the query)
+     * and Name_Fetch (reading the rows) measures. Without a FetchSize (0 by default unless exporting), the MySQL and
+     * PostgreSQL drivers read the whole result while executing the query: Name_Execution then includes the transfer
+     * of all rows, Name_Fetch only their mapping. With a FetchSize applied as described above, Name_Execution lasts
+     * until the first FetchSize rows are available. If the execution and fetch take longer than ExplainThreshold_ms,
+     * the execution plan of the query is attached as explain.txt.
+     */
     @Keyword(schema = "{\"properties\":{"
             + "\"ConnectionString\":{\"type\":\"string\"},"
             + "\"Username\":{\"type\":\"string\"},"
             + "\"Query\":{\"type\":\"string\"},"
-            + "\"ResultLimit\":{\"type\":\"string\"}"
+            + "\"ResultLimit\":{\"type\":\"string\"},"
+            + "\"Parameters\":{\"type\":\"string\"},"
+            + "\"StatementCacheSize\":{\"type\":\"integer\"},"
+            + "\"FetchSize\":{\"type\":\"integer\"},"
+            + "\"Export\":{\"type\":\"string\",\"enum\":[\"csv\",\"jsonl\"]},"
+            + "\"ExportFile\":{\"type\":\"string\"},"
+            + "\"Delimiter\":{\"type\":\"string\"},"
+            + "\"Name\":{\"type\":\"string\"},"
+            + "\"ExplainThreshold_ms\":{\"type\":\"integer\"},"
+            + POOL_SCHEMA
             + "},\"required\":[\"ConnectionString\",\"Query\"]}", properties = {""},
             description = "Keyword used for executing a db query.")
-    public void ExecuteQuery() throws SQLException {
-        int resultLimit = Integer.decode(input.getString("ResultLimit", "10"));
-
+    public void ExecuteQuery() throws SQLException, IOException {
         String query = input.getString("Query");
+        JsonArray parameters = StatementParameters.parse(input.get("Parameters"), "Parameters");
+        ResultSetExporter.Format exportFormat = getExportFormat();
+        String name = input.getString("Name", "Query");
+
+        startMeasure(name);
+        startMeasure(name + "_Connection");
         Connection con = getConnection();
-        try (Statement statement = con.createStatement()) {
-            boolean isResultSet = statement.execute(query);
-            if (isResultSet) {
-                ResultSet rs = statement.getResultSet();
-                ResultSetMetaData md = rs.getMetaData();
-                output.add("ColumnCount", md.getColumnCount());
-
-                int columns = md.getColumnCount();
-                List<Map<String, ?>> results = new ArrayList<>();
-                int count = 0;
-
-                while (rs.next() && count < resultLimit) {
-                    count++;
-                    Map<String, Object> row = new HashMap<>();
-                    for (int i = 1; i <= columns; i++) {
-                        row.put(md.getColumnLabel(i).toUpperCase(), rs.getObject(i));
+        stopMeasure(null);
+        boolean transaction = false;
+        try {
+            // PostgreSQL only fetches the rows by FetchSize within a transaction
+            if (exportFormat != null && con.getAutoCommit()) {
+                con.setAutoCommit(false);
+                transaction = true;
+            }
+            long begin = System.currentTimeMillis();
+            ResultSize size;
+            if (parameters != null) {
+                size = executePrepared(con, query, parameters, exportFormat, name);
+            } else {
+                try (Statement statement = con.createStatement()) {
+                    setFetchSize(statement, exportFormat);
+                    startMeasure(name + "_Execution");
+                    boolean isResultSet = statement.execute(query);
+                    stopMeasure(null);
+                    size = fetchResult(statement, isResultSet, exportFormat, name);
+                }
+            }
+            long durationMs = System.currentTimeMillis() - begin;
+            stopMeasure(size.toMeasureData());
+            if (input.containsKey("ExplainThreshold_ms") && durationMs > input.getInt("ExplainThreshold_ms")) {
+                attachExplainPlan(con, query, parameters);
+            }
+        } finally {
+            try {
+                if (transaction) {
+                    // commits the read only transaction
+                    con.setAutoCommit(true);
+                }
+            } finally {
+                releaseConnection(con);
+            }
+        }
+    }
+
+    private ResultSetExporter.Format getExportFormat() {
+        String export = input.getString("Export", null);
+        if (export == null) {
+            return null;
+        }
+        try {
+            return ResultSetExporter.Format.valueOf(export.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException("Unsupported export format '" + export + "', expected csv or jsonl");
+        }
+    }
+
+    private void setFetchSize(Statement statement, ResultSetExporter.Format exportFormat) throws SQLException {
+        // always set, as the cached prepared statements keep the fetch size of their previous execution. With 0, the
+        // MySQL and PostgreSQL drivers read the whole result in execute(), which the _Execution measure then includes
+        statement.setFetchSize(input.getInt("FetchSize", exportFormat != null ? 1000 : 0));
+    }
+
+    /**
+     * Execute the query with the statement cached for the connection of the session, unless StatementCacheSize is 0.
+     * The statements of a pooled connection are prepared and closed through the pool, the driver caching them
+     */
+    private ResultSize executePrepared(Connection con, String query, JsonArray parameters, ResultSetExporter.Format exportFormat,
+                                       String name) throws SQLException, IOException {
+        int statementCacheSize = input.getInt("StatementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE);
+        if (statementCacheSize > 0 && !input.getBoolean(POOL_OPT, false)) {
+            StatementCache statementCache = session.get(DBConnectionWrapper.class).getStatementCache(statementCacheSize);
+            return executePrepared(statementCache.prepare(query), parameters, exportFormat, name);
+        } else {
+            try (PreparedStatement statement = con.prepareStatement(query)) {
+                return executePrepared(statement, parameters, exportFormat, name);
+            }
+        }
+    }
+
+    private ResultSize executePrepared(PreparedStatement statement, JsonArray parameters, ResultSetExporter.Format exportFormat,
+                                       String name) throws SQLException, IOException {
+        StatementParameters.bind(statement, parameters);
+        setFetchSize(statement, exportFormat);
+        startMeasure(name + "_Execution");
+        boolean isResultSet = statement.execute();
+        stopMeasure(null);
+        return fetchResult(statement, isResultSet, exportFormat, name);
+    }
+
+    /**
+     * The number of rows and the size in bytes of the result, the rows being the update count of an update
+     */
+    private record ResultSize(long rows, long bytes) {
+        private Map<String, Object> toMeasureData() {
+            Map<String, Object> data = new HashMap<>();
+            data.put("Rows", rows);
+            data.put("Bytes", bytes);
+            return data;
+        }
+    }
+
+    private ResultSize fetchResult(Statement statement, boolean isResultSet, ResultSetExporter.Format exportFormat, String name)
+            throws SQLException, IOException {
+        startMeasure(name + "_Fetch");
+        ResultSize size = processResult(statement, isResultSet, exportFormat);
+        stopMeasure(size.toMeasureData());
+        return size;
+    }
+
+    private ResultSize processResult(Statement statement, boolean isResultSet, ResultSetExporter.Format exportFormat)
+            throws SQLException, IOException {
+        if (isResultSet && exportFormat != null) {
+            try (ResultSet rs = statement.getResultSet()) {
+                return exportResult(rs, exportFormat);
+            }
+        } else if (isResultSet) {
+            int resultLimit = Integer.decode(input.getString("ResultLimit", "10"));
+            ResultSet rs = statement.getResultSet();
+            ResultSetMetaData md = rs.getMetaData();
+            output.add("ColumnCount", md.getColumnCount());
+
+            int columns = md.getColumnCount();
+            String[] labels = new String[columns + 1];
+            for (int i = 1; i <= columns; i++) {
+                labels[i] = md.getColumnLabel(i).toUpperCase();
+            }
+            List<Map<String, ?>> results = new ArrayList<>();
+            int count = 0;
+
+            while (rs.next() && count < resultLimit) {
+                count++;
+                Map<String, Object> row = new HashMap<>();
+                for (int i = 1; i <= columns; i++) {
+                    row.put(labels[i], rs.getObject(i));
+                }
+                results.add(row);
+            }
+
+            long bytes = 0;
+            if (input.getString("ResultFormat", "json").equals("json")) {
+                JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+                results.forEach(row -> {
+                    JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+                    row.forEach((key, value) -> objectBuilder.add(key, value != null ? value.toString() : "null"));
+                    arrayBuilder.add(objectBuilder.build());
+                });
+                String resultAsJson = arrayBuilder.build().toString();
+                output.add("ResultAsJson", resultAsJson);
+                bytes = resultAsJson.getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            rs.close();
+            return new ResultSize(count, bytes);
+        } else {
+            int updateCount = statement.getUpdateCount();
+            output.add("UpdateCount", updateCount);
+            return new ResultSize(Math.max(updateCount, 0), 0);
+        }
+    }
+
+    /**
+     * Attach the execution plan of the query, or the reason why it could not be captured
+     */
+    private void attachExplainPlan(Connection con, String query, JsonArray parameters) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            boolean oracle = con.getMetaData().getDatabaseProductName().toLowerCase().contains("oracle");
+            try (PreparedStatement statement = con.prepareStatement((oracle ? "EXPLAIN PLAN FOR " : "EXPLAIN ") + query)) {
+                if (parameters != null) {
+                    StatementParameters.bind(statement, parameters);
+                }
+                if (oracle) {
+                    statement.execute();
+                    try (Statement display = con.createStatement();
+                         ResultSet rs = display.executeQuery("SELECT PLAN_TABLE_OUTPUT FROM TABLE(DBMS_XPLAN.DISPLAY())")) {
+                        appendRows(plan, rs);
+                    }
+                } else {
+                    try (ResultSet rs = statement.executeQuery()) {
+                        appendRows(plan, rs);
                     }
-                    results.add(row);
                 }
+            }
+        } catch (SQLException e) {
+            plan.append("The execution plan could not be captured: ").append(e.getMessage());
+        }
+        output.addAttachment(AttachmentHelper.generateAttachmentFromByteArray(
+                plan.toString().getBytes(StandardCharsets.UTF_8), "explain.txt"));
+    }
 
-                if (input.getString("ResultFormat", "json").equals("json")) {
-                    JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
-                    results.forEach(row -> {
-                        JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
-                        row.forEach((key, value) -> objectBuilder.add(key, value != null ? value.toString() : "null"));
-                        arrayBuilder.add(objectBuilder.build());
+    private static void appendRows(StringBuilder text, ResultSet rs) throws SQLException {
+        int columns = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    text.append('\t');
+                }
+                text.append(rs.getString(i));
+            }
+            text.append('\n');
+        }
+    }
+
+    private ResultSize exportResult(ResultSet rs, ResultSetExporter.Format format) throws SQLException, IOException {
+        ResultSetExporter exporter = new ResultSetExporter(format, getDelimiter());
+        long limit = input.containsKey("ResultLimit") ? Long.decode(input.getString("ResultLimit")) : Long.MAX_VALUE;
+        String exportFile = input.getString("ExportFile", null);
+        long begin = System.currentTimeMillis();
+        long rows;
+        long bytes;
+        if (exportFile != null) {
+            Path path = Paths.get(exportFile);
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                rows = exporter.export(rs, writer, limit);
+            }
+            bytes = Files.size(path);
+        } else {
+            StringWriter writer = new StringWriter();
+            rows = exporter.export(rs, writer, limit);
+            byte[] content = writer.toString().getBytes(StandardCharsets.UTF_8);
+            bytes = content.length;
+            output.addAttachment(AttachmentHelper.generateAttachmentFromByteArray(content, "result." + format.getExtension()));
+        }
+        output.add("ColumnCount", rs.getMetaData().getColumnCount());
+        output.add("RowCount", rows);
+        Map<String, Long> statistics = rowStatistics(rows, begin);
+        statistics.put("Bytes", bytes);
+        addStatistics("Export", statistics);
+        return new ResultSize(rows, bytes);
+    }
+
+    /**
+     * Execute a parameterized statement for many rows, ex: INSERT INTO ITEMS (ID, NAME) VALUES (?, ?)
+     * <p>
+     * The rows are read either from Data, a json array of rows bound like the Parameters of ExecuteQuery, each row
+     * being an array of values or an object whose values are taken in order, or from File, a CSV file or a sheet of
+     * a XLSX file (Sheet, the first sheet by default). The first row of a file is skipped unless Header is false and
+     * the fields of a CSV file are separated by Delimiter (comma by default). The values read from a file are bound as
+     * strings, unless their types are given by Types, ex: ["long","string","timestamp"], the empty values being NULL.
+     * <p>
+     * The rows are sent by batches of BatchSize rows (1000 by default) and committed every CommitInterval rows (10000
+     * by default, 0 to commit once at the end), a failure rolling the uncommitted rows back. With MySQL, add
+     * rewriteBatchedStatements=true to the connection string to send each batch as a single multi-row insert. With
+     * PostgreSQL, Copy can be set instead of Query to the target of a COPY, ex: ITEMS (ID, NAME), to bulk load the rows.
+     * <p>
+     * Each batch is reported as a Batch measure, and the whole execution by the Batch_Rows, Batch_Batches and
+     * Batch_RowsPerSecond statistics (Copy measure and Copy_Rows and Copy_RowsPerSecond with Copy)
+     */
+    @Keyword(schema = "{\"properties\":{"
+            + "\"ConnectionString\":{\"type\":\"string\"},"
+            + "\"Username\":{\"type\":\"string\"},"
+            + "\"Query\":{\"type\":\"string\"},"
+            + "\"Data\":{\"type\":\"string\"},"
+            + "\"File\":{\"type\":\"string\"},"
+            + "\"Sheet\":{\"type\":\"string\"},"
+            + "\"Header\":{\"type\":\"boolean\"},"
+            + "\"Delimiter\":{\"type\":\"string\"},"
+            + "\"Types\":{\"type\":\"string\"},"
+            + "\"BatchSize\":{\"type\":\"integer\"},"
+            + "\"CommitInterval\":{\"type\":\"integer\"},"
+            + "\"Copy\":{\"type\":\"string\"},"
+            + POOL_SCHEMA
+            + "},\"required\":[\"ConnectionString\"]}", properties = {""},
+            description = "Keyword used for executing a db statement for many rows.")
+    public void ExecuteBatch() throws SQLException, IOException {
+        JsonArray data = StatementParameters.parse(input.get("Data"), "Data");
+        String fileName = input.getString("File", null);
+        if ((data == null) == (fileName == null)) {
+            throw new BusinessException("Either the Data or the File input must be set");
+        }
+        File file = null;
+        if (fileName != null) {
+            file = new File(fileName);
+            if (!file.canRead()) {
+                throw new BusinessException("The file " + file + " doesn't exist or cannot be read");
+            }
+        }
+        String copyTarget = input.getString("Copy", null);
+        String query = input.getString("Query", null);
+        if (copyTarget == null && query == null) {
+            throw new BusinessException("The Query input is required unless Copy is set");
+        }
+        if (input.getInt("BatchSize", 1000) <= 0) {
+            throw new BusinessException("The BatchSize input must be greater than 0");
+        }
+
+        Connection con = getConnection();
+        try {
+            if (copyTarget != null) {
+                copy(con, copyTarget, data, file);
+            } else {
+                executeBatch(con, query, data, file);
+            }
+        } finally {
+            releaseConnection(con);
+        }
+    }
+
+    private void executeBatch(Connection con, String query, JsonArray data, File file) throws SQLException, IOException {
+        int batchSize = input.getInt("BatchSize", 1000);
+        long commitInterval = input.getInt("CommitInterval", 10000);
+        long begin = System.currentTimeMillis();
+        try (PreparedStatement statement = con.prepareStatement(query);
+             BatchExecutor executor = new BatchExecutor(con, statement, batchSize, commitInterval,
+                     (batchBegin, durationMs, rows) -> addMeasure("Batch", batchBegin, durationMs, Map.of("Rows", rows)))) {
+            // the parameters of a row shorter than the statement are bound to NULL, not left to the previous row
+            int parameterCount = parameterCount(statement);
+            try {
+                if (data != null) {
+                    for (JsonValue row : data) {
+                        List<JsonValue> values = rowValues(row);
+                        statement.clearParameters();
+                        StatementParameters.bind(statement, values);
+                        for (int index = values.size() + 1; index <= parameterCount; index++) {
+                            statement.setNull(index, Types.NULL);
+                        }
+                        executor.addRow();
+                    }
+                } else {
+                    JsonArray typesInput = StatementParameters.parse(input.get("Types"), "Types");
+                    List<String> types = typesInput != null ? typesInput.getValuesAs(JsonString::getString) : List.of();
+                    readFile(file, values -> {
+                        statement.clearParameters();
+                        // the trailing empty cells of a sheet row are not read
+                        for (int i = 0; i < Math.max(values.size(), parameterCount); i++) {
+                            String value = i < values.size() ? values.get(i) : null;
+                            StatementParameters.bind(statement, i + 1, value, i < types.size() ? types.get(i) : "string");
+                        }
+                        executor.addRow();
                     });
-                    output.add("ResultAsJson", arrayBuilder.build().toString());
                 }
+                executor.finish();
+            } catch (SQLException | IOException | RuntimeException e) {
+                output.add("CommittedRows", executor.getCommittedRows());
+                throw e;
+            }
+            Map<String, Long> statistics = rowStatistics(executor.getRows(), begin);
+            statistics.put("Batches", executor.getBatches());
+            addStatistics("Batch", statistics);
+        }
+    }
+
+    /**
+     * @return the number of placeholders of the statement, -1 if the driver cannot tell it before the execution,
+     * the unbound parameters of a short row then being reported by the driver
+     */
+    private static int parameterCount(PreparedStatement statement) {
+        try {
+            return statement.getParameterMetaData().getParameterCount();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    private void copy(Connection con, String target, JsonArray data, File file) throws SQLException, IOException {
+        CopyManager copyManager;
+        try {
+            copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+        } catch (SQLException e) {
+            throw new BusinessException("The Copy input is only supported by PostgreSQL");
+        }
+        String sql = "COPY " + target + " FROM STDIN WITH (FORMAT csv";
+        long begin = System.currentTimeMillis();
+        long rows;
+        if (file != null && !isExcel(file)) {
+            // the CSV file is streamed as is, the server parsing it
+            char delimiter = getDelimiter();
+            sql += ", DELIMITER '" + (delimiter == '\'' ? "''" : String.valueOf(delimiter)) + "', HEADER "
+                    + input.getBoolean("Header", true) + ")";
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                rows = copyManager.copyIn(sql, reader);
+            }
+        } else {
+            CopyIn copyIn = copyManager.copyIn(sql + ")");
+            try {
+                StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+                if (data != null) {
+                    for (JsonValue row : data) {
+                        appendCsvRow(buffer, rowValues(row).stream().map(DatabaseKeywords::toText).toList());
+                        flushCopyBuffer(copyIn, buffer, false);
+                    }
+                } else {
+                    readFile(file, values -> {
+                        appendCsvRow(buffer, values);
+                        flushCopyBuffer(copyIn, buffer, false);
+                    });
+                }
+                flushCopyBuffer(copyIn, buffer, true);
+                rows = copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+        addMeasure("Copy", begin, System.currentTimeMillis() - begin, Map.of("Rows", rows));
+        addStatistics("Copy", rowStatistics(rows, begin));
+    }
+
+    /**
+     * Receiver of the rows of a file, as the list of the values of its columns, the list being reused for the next row
+     */
+    @FunctionalInterface
+    private interface RowHandler {
+        void row(List<String> values) throws SQLException;
+    }
 
-                rs.close();
+    /**
+     * Read the rows of a CSV or XLSX file, skipping the first one unless Header is false. The empty rows of a sheet
+     * are skipped, its rows starting with column A and its empty cells being null
+     */
+    private void readFile(File file, RowHandler handler) throws IOException, SQLException {
+        boolean[] skip = {input.getBoolean("Header", true)};
+        RowHandler rowHandler = values -> {
+            if (skip[0]) {
+                skip[0] = false;
             } else {
-                output.add("UpdateCount", statement.getUpdateCount());
+                handler.row(values);
+            }
+        };
+        if (isExcel(file)) {
+            List<String> values = new ArrayList<>();
+            new StreamingSheetReader(0, Integer.MAX_VALUE, null).read(file, input.getString("Sheet", null), (rowNum, cells) -> {
+                values.clear();
+                cells.forEach((column, value) -> {
+                    while (values.size() < column) {
+                        values.add(null);
+                    }
+                    values.add(value);
+                });
+                rowHandler.row(values);
+            });
+        } else {
+            try (CsvReader reader = new CsvReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8), getDelimiter())) {
+                List<String> values;
+                while ((values = reader.next()) != null) {
+                    rowHandler.row(values);
+                }
             }
         }
     }
+
+    private static boolean isExcel(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".xlsx") || name.endsWith(".xlsm");
+    }
+
+    private char getDelimiter() {
+        String delimiter = input.getString("Delimiter", ",");
+        if (delimiter.length() != 1) {
+            throw new BusinessException("The delimiter must be a single character");
+        }
+        return delimiter.charAt(0);
+    }
+
+    private static List<JsonValue> rowValues(JsonValue row) {
+        return switch (row.getValueType()) {
+            case ARRAY -> row.asJsonArray();
+            case OBJECT -> new ArrayList<>(row.asJsonObject().values());
+            default -> throw new BusinessException("Each row of the Data input must be an array or an object: " + row);
+        };
+    }
+
+    /**
+     * @return the text of a json value as bound by ExecuteQuery, null for NULL
+     */
+    private static String toText(JsonValue value) {
+        return switch (value.getValueType()) {
+            case NULL -> null;
+            case STRING -> ((JsonString) value).getString();
+            case OBJECT -> toText(value.asJsonObject().getOrDefault("Value", JsonValue.NULL));
+            default -> value.toString();
+        };
+    }
+
+    /**
+     * Append a row in the CSV format of COPY: the values are quoted, so that the empty strings are not read as NULL
+     */
+    private static void appendCsvRow(StringBuilder buffer, List<String> values) {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            String value = values.get(i);
+            if (value != null) {
+                buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+        }
+        buffer.append('\n');
+    }
+
+    private static void flushCopyBuffer(CopyIn copyIn, StringBuilder buffer, boolean force) throws SQLException {
+        if (buffer.length() >= COPY_BUFFER_SIZE || (force && buffer.length() > 0)) {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+    }
+
+    private static Map<String, Long> rowStatistics(long rows, long begin) {
+        long durationMs = Math.max(1, System.currentTimeMillis() - begin);
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("Rows", rows);
+        statistics.put("RowsPerSecond", rows * 1000 / durationMs);
+        return statistics;
+    }
+
+    /**
+     * Close the agent wide connection pools of a database and user, whatever their password, and all their connections
+     */
+    @Keyword(schema = "{\"properties\":{"
+            + "\"ConnectionString\":{\"type\":\"string\"},"
+            + "\"Username\":{\"type\":\"string\"}"
+            + "},\"required\":[\"ConnectionString\"]}", properties = {""},
+            description = "Keyword used for closing a db connection pool.")
+    public void CloseConnectionPool() {
+        output.add("Closed", ConnectionPools.close(input.getString("ConnectionString"), input.getString("Username", null)));
+    }
 }
@@ -0,0 +1,153 @@
+package ch.exense.step.library.kw.system;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Export of the rows of a result set to a writer, one row at a time, so that the memory used does not depend
+ * on the number of rows
+ * <p>
+ * The rows are written either as CSV, with a header line of the column labels, or as JSON lines, one object
+ * keyed by column label per row. The column labels are upper-cased like the keys of the ResultAsJson output of
+ * ExecuteQuery, and read once per result set.
+ */
+class ResultSetExporter {
+
+    enum Format {
+        CSV("csv"), JSONL("jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Format format;
+    private final char delimiter;
+
+    /**
+     * @param delimiter the separator of the CSV fields
+     */
+    ResultSetExporter(Format format, char delimiter) {
+        this.format = format;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * @param limit the maximum number of rows to export
+     * @return the number of rows exported
+     */
+    long export(ResultSet resultSet, Writer writer, long limit) throws SQLException, IOException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columns = metaData.getColumnCount();
+        String[] labels = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1).toUpperCase();
+        }
+        if (format == Format.CSV) {
+            return exportCsv(resultSet, writer, labels, limit);
+        } else {
+            return exportJsonLines(resultSet, writer, labels, limit);
+        }
+    }
+
+    private long exportCsv(ResultSet resultSet, Writer writer, String[] labels, long limit) throws SQLException, IOException {
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            writeCsvField(writer, labels[i]);
+        }
+        writer.write("\r\n");
+        long rows = 0;
+        while (rows < limit && resultSet.next()) {
+            for (int i = 0; i < labels.length; i++) {
+                if (i > 0) {
+                    writer.write(delimiter);
+                }
+                String value = resultSet.getString(i + 1);
+                if (value != null) {
+                    writeCsvField(writer, value);
+                }
+            }
+            writer.write("\r\n");
+            rows++;
+        }
+        return rows;
+    }
+
+    private void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\r' || c == '\n';
+        }
+        if (quote) {
+            // the empty strings are quoted to be distinguished from NULL
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+
+    private long exportJsonLines(ResultSet resultSet, Writer writer, String[] labels, long limit) throws SQLException, IOException {
+        // the keys are escaped once for all rows
+        String[] keys = new String[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            keys[i] = (i > 0 ? "," : "{") + quote(labels[i]) + ":";
+        }
+        long rows = 0;
+        while (rows < limit && resultSet.next()) {
+            for (int i = 0; i < keys.length; i++) {
+                writer.write(keys[i]);
+                Object value = resultSet.getObject(i + 1);
+                if (value == null) {
+                    writer.write("null");
+                } else if (value instanceof Boolean || (value instanceof Number number && isFinite(number))) {
+                    writer.write(value.toString());
+                } else {
+                    writer.write(quote(value.toString()));
+                }
+            }
+            writer.write(keys.length > 0 ? "}\n" : "{}\n");
+            rows++;
+        }
+        return rows;
+    }
+
+    private static boolean isFinite(Number number) {
+        return !(number instanceof Double || number instanceof Float) || Double.isFinite(number.doubleValue());
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,62 @@
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.LRUCache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Cache of the prepared statements of the connection of a session, evicting the least recently used statements first
+ * <p>
+ * The cache is owned by the {@link DBConnectionWrapper} of the session and closed with it, so that the database
+ * parses each query once per session connection. A session running one keyword at a time, the statements are never
+ * used concurrently. The pooled connections are not cached here: they use the statement cache of their driver,
+ * configured by {@link ConnectionPools}.
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final LRUCache<String, PreparedStatement> statements;
+
+    /**
+     * @param connection    the physical connection of the session
+     * @param maxStatements the maximum number of statements cached for the connection
+     */
+    StatementCache(Connection connection, int maxStatements) {
+        this.connection = connection;
+        statements = new LRUCache<>(maxStatements, (query, statement) -> 1, (query, statement) -> closeQuietly(statement));
+    }
+
+    /**
+     * Get the cached statement of a query, or prepare it
+     *
+     * @param sql the query
+     * @return the statement, with its parameters cleared. It must not be closed
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Close the cached statements
+     */
+    void close() {
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement of an evicted query, nothing to report to the keyword
+        }
+    }
+}
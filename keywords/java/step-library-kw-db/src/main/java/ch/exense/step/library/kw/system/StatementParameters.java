@@ -0,0 +1,131 @@
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.BusinessException;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Binding of the parameters of a prepared statement from a json array
+ * <p>
+ * The json strings, numbers, booleans and nulls are bound with their natural SQL type. Other types are bound
+ * from an object giving the type explicitly, ex: {"Type":"timestamp","Value":"2024-01-31 12:00:00"}, the
+ * supported types being string, integer, long, decimal, double, boolean, date, time and timestamp.
+ */
+class StatementParameters {
+
+    private StatementParameters() {
+    }
+
+    /**
+     * @param value     the value of a json array input, either the array or a string holding it
+     * @param inputName the name of the input, for the error message
+     * @return the array, null if the input is not set
+     */
+    static JsonArray parse(JsonValue value, String inputName) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (value.getValueType() == JsonValue.ValueType.STRING) {
+                return javax.json.Json.createReader(new StringReader(((JsonString) value).getString())).readArray();
+            }
+            return value.asJsonArray();
+        } catch (RuntimeException e) {
+            throw new BusinessException("The " + inputName + " input must be a json array: " + e.getMessage());
+        }
+    }
+
+    static void bind(PreparedStatement statement, List<JsonValue> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            JsonValue parameter = parameters.get(i);
+            int index = i + 1;
+            switch (parameter.getValueType()) {
+                case STRING -> statement.setString(index, ((JsonString) parameter).getString());
+                case NUMBER -> {
+                    JsonNumber number = (JsonNumber) parameter;
+                    // the integral numbers out of the long range are bound as decimals
+                    if (number.isIntegral() && number.bigIntegerValue().bitLength() < Long.SIZE) {
+                        statement.setLong(index, number.longValue());
+                    } else {
+                        statement.setBigDecimal(index, number.bigDecimalValue());
+                    }
+                }
+                case TRUE -> statement.setBoolean(index, true);
+                case FALSE -> statement.setBoolean(index, false);
+                case NULL -> statement.setNull(index, Types.NULL);
+                case OBJECT -> bindTyped(statement, index, parameter.asJsonObject());
+                default -> throw new BusinessException("Unsupported value for parameter " + index + ": " + parameter);
+            }
+        }
+    }
+
+    private static void bindTyped(PreparedStatement statement, int index, JsonObject parameter) throws SQLException {
+        String type = parameter.getString("Type", "string");
+        JsonValue value = parameter.getOrDefault("Value", JsonValue.NULL);
+        // the values are accepted as json strings or as their natural json type
+        String text = switch (value.getValueType()) {
+            case NULL -> null;
+            case STRING -> ((JsonString) value).getString();
+            default -> value.toString();
+        };
+        bind(statement, index, text, type);
+    }
+
+    /**
+     * Bind a parameter from its text, ex: a field of a CSV file
+     *
+     * @param text the value, null to bind NULL
+     * @param type the type of the parameter, see {@link StatementParameters}
+     */
+    static void bind(PreparedStatement statement, int index, String text, String type) throws SQLException {
+        type = type.toLowerCase();
+        if (text == null) {
+            statement.setNull(index, sqlType(type, index));
+            return;
+        }
+        try {
+            switch (type) {
+                case "string" -> statement.setString(index, text);
+                case "integer" -> statement.setInt(index, Integer.parseInt(text));
+                case "long" -> statement.setLong(index, Long.parseLong(text));
+                case "decimal" -> statement.setBigDecimal(index, new BigDecimal(text));
+                case "double" -> statement.setDouble(index, Double.parseDouble(text));
+                case "boolean" -> statement.setBoolean(index, Boolean.parseBoolean(text));
+                case "date" -> statement.setDate(index, Date.valueOf(text));
+                case "time" -> statement.setTime(index, Time.valueOf(text));
+                case "timestamp" -> statement.setTimestamp(index, Timestamp.valueOf(text));
+                default -> throw new BusinessException("Unsupported type '" + type + "' for parameter " + index);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException("Invalid " + type + " value for parameter " + index + ": " + text);
+        }
+    }
+
+    private static int sqlType(String type, int index) {
+        return switch (type) {
+            case "string" -> Types.VARCHAR;
+            case "integer" -> Types.INTEGER;
+            case "long" -> Types.BIGINT;
+            case "decimal" -> Types.DECIMAL;
+            case "double" -> Types.DOUBLE;
+            case "boolean" -> Types.BOOLEAN;
+            case "date" -> Types.DATE;
+            case "time" -> Types.TIME;
+            case "timestamp" -> Types.TIMESTAMP;
+            default -> throw new BusinessException("Unsupported type '" + type + "' for parameter " + index);
+        };
+    }
+}
@@ -4,12 +4,17 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import step.functions.io.Measure;
 import step.functions.io.Output;
 import step.handlers.javahandler.KeywordRunner;
 import step.handlers.javahandler.KeywordRunner.ExecutionContext;
 
 import javax.json.JsonObject;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class DatabaseKeywordsTest {
 
@@ -27,4 +32,109 @@ public class DatabaseKeywordsTest {
                 "\"Username\":\"root\", \"ResultLimit\":\"1\"}");
         Assert.assertTrue(output.getPayload().toString().contains("root"));
     }
+
+    @Test
+    public void testParameters() throws Exception {
+        String input = "{\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", " +
+                "\"Query\":\"SELECT * from user where user like ?\", " +
+                "\"Username\":\"root\", \"ResultLimit\":\"1\", \"Parameters\":\"[\\\"root\\\"]\"}";
+        // the second execution reuses the statement cached for the connection of the session
+        for (int i = 0; i < 2; i++) {
+            Output<JsonObject> output = ctx.run("ExecuteQuery", input);
+            Assert.assertTrue(output.getPayload().toString().contains("root"));
+        }
+
+        Output<JsonObject> output = ctx.run("ExecuteQuery", "{\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", " +
+                "\"Query\":\"SELECT * from user where user like ?\", " +
+                "\"Username\":\"root\", \"Parameters\":\"[{\\\"Type\\\":\\\"date\\\",\\\"Value\\\":\\\"yesterday\\\"}]\"}");
+        Assert.assertEquals("Invalid date value for parameter 1: yesterday", output.getError().getMsg());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        String connection = "\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", \"Username\":\"root\"";
+        // the temporary table lives as long as the connection of the session
+        ctx.run("ExecuteQuery", "{" + connection + ", \"Query\":\"CREATE TEMPORARY TABLE step_batch (id INT, name VARCHAR(32))\"}");
+
+        Output<JsonObject> output = ctx.run("ExecuteBatch", "{" + connection + ", " +
+                "\"Query\":\"INSERT INTO step_batch (id, name) VALUES (?, ?)\", " +
+                "\"Data\":\"[[1, \\\"a\\\"], [2, \\\"b\\\"], {\\\"id\\\": 3, \\\"name\\\": null}]\", \"BatchSize\":2}");
+        Assert.assertEquals(3, output.getPayload().getInt("Batch_Rows"));
+        Assert.assertEquals(2, output.getPayload().getInt("Batch_Batches"));
+
+        File csv = File.createTempFile("batch", ".csv");
+        csv.deleteOnExit();
+        Files.writeString(csv.toPath(), "id;name\n4;\"d;e\"\n5;\n");
+        output = ctx.run("ExecuteBatch", "{" + connection + ", " +
+                "\"Query\":\"INSERT INTO step_batch (id, name) VALUES (?, ?)\", " +
+                "\"File\":\"" + csv.getAbsolutePath().replace("\\", "\\\\") + "\", \"Delimiter\":\";\", " +
+                "\"Types\":\"[\\\"integer\\\", \\\"string\\\"]\"}");
+        Assert.assertEquals(2, output.getPayload().getInt("Batch_Rows"));
+
+        output = ctx.run("ExecuteQuery", "{" + connection + ", " +
+                "\"Query\":\"SELECT COUNT(*) AS ROWS_COUNT FROM step_batch WHERE name IS NULL\"}");
+        Assert.assertTrue(output.getPayload().getString("ResultAsJson").contains("\"ROWS_COUNT\":\"2\""));
+
+        // the short rows do not reuse the values of the previous row
+        Files.writeString(csv.toPath(), "id;name\n8;h\n9\n");
+        output = ctx.run("ExecuteBatch", "{" + connection + ", " +
+                "\"Query\":\"INSERT INTO step_batch (id, name) VALUES (?, ?)\", " +
+                "\"Data\":\"[[6, \\\"f\\\"], [7]]\"}");
+        Assert.assertEquals(2, output.getPayload().getInt("Batch_Rows"));
+        output = ctx.run("ExecuteBatch", "{" + connection + ", " +
+                "\"Query\":\"INSERT INTO step_batch (id, name) VALUES (?, ?)\", " +
+                "\"File\":\"" + csv.getAbsolutePath().replace("\\", "\\\\") + "\", \"Delimiter\":\";\"}");
+        Assert.assertEquals(2, output.getPayload().getInt("Batch_Rows"));
+        output = ctx.run("ExecuteQuery", "{" + connection + ", " +
+                "\"Query\":\"SELECT COUNT(*) AS ROWS_COUNT FROM step_batch WHERE name IS NULL\"}");
+        Assert.assertTrue(output.getPayload().getString("ResultAsJson").contains("\"ROWS_COUNT\":\"4\""));
+
+        output = ctx.run("ExecuteBatch", "{" + connection + ", " +
+                "\"Query\":\"INSERT INTO step_batch (id, name) VALUES (?, ?)\", \"Data\":\"[[6, \\\"f\\\"]]\", \"BatchSize\":0}");
+        Assert.assertEquals("The BatchSize input must be greater than 0", output.getError().getMsg());
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        String query = "\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", \"Username\":\"root\", " +
+                "\"Query\":\"SELECT user, host from user where user like ('root')\"";
+        Output<JsonObject> output = ctx.run("ExecuteQuery", "{" + query + ", \"Export\":\"csv\", \"FetchSize\":100}");
+        Assert.assertEquals(1, output.getAttachments().size());
+        Assert.assertTrue(output.getPayload().getInt("RowCount") > 0);
+
+        File export = File.createTempFile("export", ".jsonl");
+        export.deleteOnExit();
+        output = ctx.run("ExecuteQuery", "{" + query + ", \"Export\":\"jsonl\", " +
+                "\"ExportFile\":\"" + export.getAbsolutePath().replace("\\", "\\\\") + "\"}");
+        Assert.assertEquals(0, output.getAttachments().size());
+        Assert.assertTrue(Files.readAllLines(export.toPath()).get(0).startsWith("{\"USER\":\"root\",\"HOST\":"));
+    }
+
+    @Test
+    public void testMeasures() throws Exception {
+        Output<JsonObject> output = ctx.run("ExecuteQuery", "{\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", " +
+                "\"Query\":\"SELECT * from user where user like ('root')\", \"Username\":\"root\", " +
+                "\"Name\":\"Users\", \"ExplainThreshold_ms\":-1}");
+        List<String> measures = output.getMeasures().stream().map(Measure::getName).collect(Collectors.toList());
+        Assert.assertTrue(measures.containsAll(List.of("Users", "Users_Connection", "Users_Execution", "Users_Fetch")));
+        Assert.assertEquals(1, output.getAttachments().size());
+        Assert.assertEquals("explain.txt", output.getAttachments().get(0).getName());
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        String input = "{\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", " +
+                "\"Query\":\"SELECT * from user where user like ('root')\", " +
+                "\"Username\":\"root\", \"ResultLimit\":\"1\", \"Pool\":true, \"PoolMaxSize\":2}";
+        try {
+            for (int i = 0; i < 3; i++) {
+                Output<JsonObject> output = ctx.run("ExecuteQuery", input);
+                Assert.assertTrue(output.getPayload().toString().contains("root"));
+                // the connection is returned to the pool at the end of each keyword
+                Assert.assertEquals(1, output.getPayload().getInt("ConnectionPool_Active"));
+            }
+        } finally {
+            ctx.run("CloseConnectionPool", "{\"ConnectionString\":\"jdbc:mysql://34.65.202.8/mysql\", \"Username\":\"root\"}");
+        }
+    }
 }
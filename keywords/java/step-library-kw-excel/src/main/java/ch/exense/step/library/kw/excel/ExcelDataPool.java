@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.poi.ss.util.CellReference;
+
+import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.StreamingSheetReader;
+
+/**
+ * Agent wide pool of test data rows read from a XLSX sheet
+ * <p>
+ * The sheet is read once per agent with the {@link StreamingSheetReader} and kept as one array of values per
+ * column, the values repeated in a column being shared. The rows are handed out to the concurrent sessions by
+ * atomic counters, so that getting a row neither locks nor copies anything. The pool is loaded again, with
+ * new cursors and a new generation, when the file is modified.
+ */
+public class ExcelDataPool {
+
+	public enum Mode {
+		/** The rows in order, starting again with the first row after the last one */
+		SEQUENTIAL,
+		/** A random row */
+		RANDOM,
+		/** Each row once, the pool being exhausted after the last row */
+		UNIQUE,
+		/** A row assigned in order to each session and kept for its whole duration */
+		STICKY
+	}
+
+	// the loaded pools, or the loads in progress waited for by the other sessions
+	private static final Map<String, CompletableFuture<ExcelDataPool>> pools = new ConcurrentHashMap<>();
+	private static final AtomicLong generations = new AtomicLong();
+
+	private final String key;
+	private final long generation = generations.incrementAndGet();
+	private final long lastModified;
+	private final long size;
+	private final String[] names;
+	// values[column][row], null for the empty cells
+	private final String[][] values;
+	private final int[] rowNumbers;
+
+	private final AtomicLong sequentialCursor = new AtomicLong();
+	private final AtomicInteger uniqueCursor = new AtomicInteger();
+	private final AtomicLong stickyCursor = new AtomicLong();
+
+	private ExcelDataPool(String key, long lastModified, long size, String[] names, String[][] values, int[] rowNumbers) {
+		this.key = key;
+		this.lastModified = lastModified;
+		this.size = size;
+		this.names = names;
+		this.values = values;
+		this.rowNumbers = rowNumbers;
+	}
+
+	/**
+	 * Get the pool of a sheet, or load it if the sheet has not been read yet or the file has been modified
+	 *
+	 * @param workbookFile the XLSX file
+	 * @param sheetName    the name of the sheet, null for the first sheet
+	 * @param header       true if the first row holds the names of the columns, otherwise the columns are named by letter
+	 */
+	public static ExcelDataPool get(File workbookFile, String sheetName, boolean header) throws IOException {
+		String key = workbookFile.getCanonicalPath() + "|" + sheetName + "|" + header;
+		while (true) {
+			CompletableFuture<ExcelDataPool> current = pools.get(key);
+			if (current != null) {
+				// a failed load is retried by each waiting session, to get its own exception
+				ExcelDataPool pool = current.exceptionally(e -> null).join();
+				if (pool != null && pool.isCurrent(workbookFile)) {
+					return pool;
+				}
+			}
+			// the sheet is read outside of the map locks, the other sessions needing the pool wait for this load
+			CompletableFuture<ExcelDataPool> load = new CompletableFuture<>();
+			boolean registered = current == null ? pools.putIfAbsent(key, load) == null : pools.replace(key, current, load);
+			if (!registered) {
+				// another session is already loading or has replaced the pool
+				continue;
+			}
+			try {
+				ExcelDataPool pool = load(key, workbookFile, sheetName, header);
+				load.complete(pool);
+				return pool;
+			} catch (IOException | RuntimeException e) {
+				pools.remove(key, load);
+				load.completeExceptionally(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Unload the pool of a sheet, the next use reading the sheet again with new cursors
+	 *
+	 * @return true if the pool was loaded
+	 */
+	public static boolean remove(File workbookFile, String sheetName, boolean header) throws IOException {
+		return pools.remove(workbookFile.getCanonicalPath() + "|" + sheetName + "|" + header) != null;
+	}
+
+	private static ExcelDataPool load(String key, File workbookFile, String sheetName, boolean header) throws IOException {
+		long lastModified = workbookFile.lastModified();
+		long size = workbookFile.length();
+		Map<Integer, String> headerCells = new HashMap<>();
+		// the values of each column, in row order, and the values already seen in the column
+		Map<Integer, List<String>> columns = new TreeMap<>();
+		Map<Integer, Map<String, String>> distinctValues = new HashMap<>();
+		List<Integer> rowNumbers = new ArrayList<>();
+		new StreamingSheetReader(0, Integer.MAX_VALUE, null).read(workbookFile, sheetName, (rowNum, cells) -> {
+			if (header && rowNumbers.isEmpty() && headerCells.isEmpty()) {
+				headerCells.putAll(cells);
+				return;
+			}
+			int row = rowNumbers.size();
+			rowNumbers.add(rowNum + 1);
+			cells.forEach((column, value) -> {
+				List<String> columnValues = columns.computeIfAbsent(column, c -> new ArrayList<>());
+				while (columnValues.size() < row) {
+					columnValues.add(null);
+				}
+				columnValues.add(distinctValues.computeIfAbsent(column, c -> new HashMap<>()).computeIfAbsent(value, v -> v));
+			});
+		});
+		if (rowNumbers.isEmpty()) {
+			throw new BusinessException("The sheet " + (sheetName != null ? sheetName : "") + " of " + workbookFile + " doesn't contain any data row");
+		}
+
+		int rowCount = rowNumbers.size();
+		String[] names = new String[columns.size()];
+		String[][] values = new String[columns.size()][];
+		int i = 0;
+		for (Map.Entry<Integer, List<String>> column : columns.entrySet()) {
+			String name = headerCells.get(column.getKey());
+			names[i] = name != null ? name : CellReference.convertNumToColString(column.getKey());
+			values[i] = column.getValue().toArray(new String[rowCount]);
+			i++;
+		}
+		return new ExcelDataPool(key, lastModified, size, names, values, rowNumbers.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	private boolean isCurrent(File workbookFile) {
+		return workbookFile.lastModified() == lastModified && workbookFile.length() == size;
+	}
+
+	/**
+	 * @return the key identifying the pool, ex: to store the row assigned to a session
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the number identifying this load of the sheet, a reloaded or reset pool getting a new generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	public int getRowCount() {
+		return rowNumbers.length;
+	}
+
+	/**
+	 * Get the index of the next row to hand out
+	 *
+	 * @return the 0-based index of the row in the pool
+	 * @throws BusinessException if the mode is {@link Mode#UNIQUE} and all rows have already been handed out
+	 */
+	public int nextRow(Mode mode) {
+		int rowCount = rowNumbers.length;
+		switch (mode) {
+		case SEQUENTIAL:
+			return (int) (sequentialCursor.getAndIncrement() % rowCount);
+		case RANDOM:
+			return ThreadLocalRandom.current().nextInt(rowCount);
+		case UNIQUE:
+			int row = uniqueCursor.getAndIncrement();
+			if (row >= rowCount) {
+				// keep the cursor from overflowing when the exhausted pool keeps being used
+				uniqueCursor.set(rowCount);
+				throw new BusinessException("The data pool is exhausted, all its " + rowCount + " rows have been used");
+			}
+			return row;
+		case STICKY:
+			return (int) (stickyCursor.getAndIncrement() % rowCount);
+		default:
+			throw new IllegalArgumentException("Unsupported mode " + mode);
+		}
+	}
+
+	/**
+	 * @return the 1-based number of the row in the sheet
+	 */
+	public int getRowNumber(int row) {
+		return rowNumbers[row];
+	}
+
+	/**
+	 * @return the values of a row keyed by column name, in column order. The empty cells are returned as empty values
+	 */
+	public Map<String, String> getRow(int row) {
+		Map<String, String> rowValues = new LinkedHashMap<>();
+		for (int column = 0; column < names.length; column++) {
+			String value = values[column][row];
+			rowValues.put(names[column], value != null ? value : "");
+		}
+		return rowValues;
+	}
+}
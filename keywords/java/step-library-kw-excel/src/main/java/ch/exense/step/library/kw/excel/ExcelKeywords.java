@@ -18,26 +18,72 @@ package ch.exense.step.library.kw.excel;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Name;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellReference;
 
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
 import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.FileDocumentCache;
+import ch.exense.step.library.commons.StreamingSheetReader;
+import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.Keyword;
 
 public class ExcelKeywords extends AbstractEnhancedKeyword {
 
+	private static final String CACHE_OPT = "UseCache";
+	private static final long WORKBOOK_CACHE_MAX_HEAP_BYTES = 256L * 1024 * 1024;
+	// Estimated heap size of a workbook model per byte of its uncompressed XML parts (XLSX) or records (XLS)
+	private static final int HEAP_BYTES_PER_WORKBOOK_BYTE = 5;
+	private static final int MAX_CELLS = 100000;
+	// The workbooks are shared by all sessions of the agent and must not be modified. They are opened
+	// read-only from the file, which they hold open until they are evicted and closed
+	private static final FileDocumentCache<CachedWorkbook> workbookCache = new FileDocumentCache<>(
+			WORKBOOK_CACHE_MAX_HEAP_BYTES, (file, cached) -> cached.heapSize(), cached -> closeWorkbook(cached.workbook()));
+
+	// a workbook and its estimated heap size, computed once when the file is loaded
+	private record CachedWorkbook(Workbook workbook, long heapSize) {
+	}
+
+	// the row of a data pool assigned to a session in sticky mode
+	private record AssignedRow(long poolGeneration, int row) {
+	}
+
+	@FunctionalInterface
+	private interface WorkbookReader {
+		void read(Workbook workbook) throws IOException;
+	}
+
+	/**
+	 * Read the content of a cell. The workbooks are cached until the file is modified, unless the "UseCache" input is false.
+	 * The POI model not being thread safe even for reads, the sessions reading the same cached workbook are serialized:
+	 * use the data pool (Get_Excel_Data_Pool_Row) to feed many concurrent sessions from a sheet
+	 */
 	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"},"
-			+ "\"Cell\":{\"type\":\"string\"}" + "},\"required\":[\"File\", \"Cell\"]}", properties = { "" },
+			+ "\"Cell\":{\"type\":\"string\"}," + "\"" + CACHE_OPT + "\":{\"type\":\"boolean\"}"
+			+ "},\"required\":[\"File\", \"Cell\"]}", properties = { "" },
 			description = "Keyword used for reading the content of a cell.")
 	public void Read_Excel_Cell() throws FileNotFoundException, IOException {
 		String fileName = input.getString("File");
@@ -47,17 +93,223 @@ public class ExcelKeywords extends AbstractEnhancedKeyword {
 		File workbookFile = getWorkbookFile(fileName);
 		CellAddress parseCellAddress = parseCellAddress(cellAddress);
 
-		try (Workbook workbook = WorkbookFactory.create(workbookFile, null, true)) {
+		readWorkbook(workbookFile, workbook -> {
 			Sheet sheet = getSheet(sheetName, workbook);
 			Row row = getRow(sheet, parseCellAddress.row);
 			Cell cell = getCell(row, parseCellAddress.column);
 			String value = getCellValueAsString(workbook, cell);
 			output.add("Value", value);
+		});
+	}
+
+	/**
+	 * Read the content of a list of cells with a single parsing of the workbook
+	 * <p>
+	 * The Cells input is a comma separated list of cell addresses, ranges and named ranges, ex: A1,B3:D200,Prices.
+	 * Each cell is returned as an output named by its address, ex: C12, prefixed by the sheet name for the named ranges
+	 * and the addresses referencing a sheet, ex: Data!C12. The empty cells are returned as empty values. The workbooks
+	 * are cached until the file is modified, unless the "UseCache" input is false. The sessions reading the same cached
+	 * workbook are serialized, see Read_Excel_Cell
+	 */
+	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"},"
+			+ "\"Cells\":{\"type\":\"string\"}," + "\"" + CACHE_OPT + "\":{\"type\":\"boolean\"}"
+			+ "},\"required\":[\"File\", \"Cells\"]}", properties = { "" },
+			description = "Keyword used for reading the content of a list or range of cells.")
+	public void Read_Excel_Cells() throws FileNotFoundException, IOException {
+		String fileName = input.getString("File");
+		String sheetName = input.getString("Sheet", null);
+		String cells = input.getString("Cells");
+
+		File workbookFile = getWorkbookFile(fileName);
+
+		readWorkbook(workbookFile, workbook -> {
+			Sheet defaultSheet = getSheet(sheetName, workbook);
+			FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+			DataFormatter dataFormatter = new DataFormatter();
+			int count = 0;
+			for (AreaReference area : parseCellRanges(workbook, cells)) {
+				for (CellReference reference : area.getAllReferencedCells()) {
+					Sheet sheet = reference.getSheetName() != null ? workbook.getSheet(reference.getSheetName()) : defaultSheet;
+					if (sheet == null) {
+						throw new BusinessException("The sheet " + (reference.getSheetName() != null ? reference.getSheetName() : sheetName) + " doesn't exist");
+					}
+					Row row = sheet.getRow(reference.getRow());
+					Cell cell = row != null ? row.getCell(reference.getCol()) : null;
+					String value = cell != null ? dataFormatter.formatCellValue(cell, evaluator) : "";
+					output.add(reference.formatAsString(false), value);
+					count++;
+				}
+			}
+			output.add("Count", count);
+		});
+	}
+
+	/**
+	 * Report the hits, misses, evictions, size and weight (in bytes) of the agent wide cache
+	 * of workbooks as ExcelWorkbookCache_* measures
+	 */
+	@Keyword(description = "Report the statistics of the excel workbook cache as measures")
+	public void Get_Excel_Cache_Statistics() {
+		addStatistics("ExcelWorkbookCache", workbookCache.getStatistics());
+	}
+
+	/**
+	 * Get a row of test data from an agent wide pool loaded once from a XLSX sheet
+	 * <p>
+	 * The values of the row are returned as outputs named by the values of the first row, or by column letter if
+	 * Header is false, as well as the 1-based number of the row in the sheet as RowNumber. The Mode input selects the
+	 * row: "sequential" (default, the rows in order, looping), "random", "unique" (each row once, a business error
+	 * being returned once all rows have been used) or "sticky" (a row assigned to the session on its first call and
+	 * returned by all its subsequent calls, until the pool is reloaded or reset)
+	 */
+	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"},"
+			+ "\"Mode\":{\"type\":\"string\",\"enum\":[\"sequential\",\"random\",\"unique\",\"sticky\"]},"
+			+ "\"Header\":{\"type\":\"boolean\"}" + "},\"required\":[\"File\"]}", properties = { "" },
+			description = "Keyword used for getting the next row of a data pool read from a sheet.")
+	public void Get_Excel_Data_Pool_Row() throws IOException {
+		String fileName = input.getString("File");
+		String sheetName = input.getString("Sheet", null);
+		String modeInput = input.getString("Mode", "sequential");
+
+		ExcelDataPool.Mode mode;
+		try {
+			mode = ExcelDataPool.Mode.valueOf(modeInput.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new BusinessException("Unsupported mode '" + modeInput + "', expected sequential, random, unique or sticky");
+		}
+		ExcelDataPool pool = ExcelDataPool.get(getWorkbookFile(fileName), sheetName, input.getBoolean("Header", true));
+
+		int row;
+		if (mode == ExcelDataPool.Mode.STICKY) {
+			String sessionKey = "ExcelDataPool|" + pool.getKey();
+			AssignedRow assignedRow = (AssignedRow) session.get(sessionKey);
+			// the rows of a reloaded or reset pool may differ, the session is assigned a row of the new pool
+			if (assignedRow == null || assignedRow.poolGeneration() != pool.getGeneration()) {
+				assignedRow = new AssignedRow(pool.getGeneration(), pool.nextRow(mode));
+				session.put(sessionKey, assignedRow);
+			}
+			row = assignedRow.row();
+		} else {
+			row = pool.nextRow(mode);
 		}
+		pool.getRow(row).forEach(output::add);
+		output.add("RowNumber", pool.getRowNumber(row));
+	}
+
+	/**
+	 * Unload the data pool of a sheet, its next use reading the sheet again and handing out the rows from the start
+	 */
+	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"},"
+			+ "\"Header\":{\"type\":\"boolean\"}" + "},\"required\":[\"File\"]}", properties = { "" },
+			description = "Keyword used for resetting a data pool read from a sheet.")
+	public void Reset_Excel_Data_Pool() throws IOException {
+		String fileName = input.getString("File");
+		String sheetName = input.getString("Sheet", null);
+		output.add("Unloaded", ExcelDataPool.remove(new File(fileName), sheetName, input.getBoolean("Header", true)));
 	}
 
-	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"}"
-			 + "},\"required\":[\"File\"]}", properties = { "" },
+	private void readWorkbook(File workbookFile, WorkbookReader reader) throws IOException {
+		if (input.getBoolean(CACHE_OPT, true)) {
+			// the size of the workbook is only estimated when the file is loaded, not on the cache hits
+			CachedWorkbook cached = workbookCache.get(workbookFile, ExcelKeywords::loadWorkbook);
+			Workbook workbook = cached.workbook();
+			// a cached workbook is shared by all sessions of the agent and the POI model is not thread safe, even for reads
+			try {
+				synchronized (workbook) {
+					reader.read(workbook);
+				}
+			} finally {
+				if (cached.heapSize() > WORKBOOK_CACHE_MAX_HEAP_BYTES) {
+					// too large to be cached, the cache will never close it
+					closeWorkbook(workbook);
+				}
+			}
+		} else {
+			try (Workbook workbook = openWorkbook(workbookFile)) {
+				reader.read(workbook);
+			}
+		}
+	}
+
+	private static CachedWorkbook loadWorkbook(File workbookFile) throws IOException {
+		long heapSize = estimateHeapSize(workbookFile);
+		return new CachedWorkbook(openWorkbook(workbookFile), heapSize);
+	}
+
+	private static Workbook openWorkbook(File workbookFile) throws IOException {
+		return WorkbookFactory.create(workbookFile, null, true);
+	}
+
+	private static void closeWorkbook(Workbook workbook) {
+		// a reader still holding the evicted workbook keeps reading the parsed model, the file is only used on load
+		synchronized (workbook) {
+			try {
+				workbook.close();
+			} catch (IOException e) {
+				// read-only: nothing is written back, only the file handle is released
+			}
+		}
+	}
+
+	private static long estimateHeapSize(File workbookFile) throws IOException {
+		long modelBytes;
+		try (ZipFile zip = new ZipFile(workbookFile)) {
+			// XLSX: the file is zipped, the model is built from the uncompressed XML parts
+			modelBytes = zip.stream().mapToLong(entry -> Math.max(entry.getSize(), 0)).sum();
+		} catch (ZipException e) {
+			// XLS: the records are not compressed
+			modelBytes = workbookFile.length();
+		}
+		return modelBytes * HEAP_BYTES_PER_WORKBOOK_BYTE;
+	}
+
+	private static List<AreaReference> parseCellRanges(Workbook workbook, String cells) {
+		SpreadsheetVersion version = workbook.getSpreadsheetVersion();
+		List<AreaReference> areas = new ArrayList<>();
+		long count = 0;
+		for (String range : cells.split(",")) {
+			String trimmed = range.trim();
+			Name name = workbook.getName(trimmed);
+			AreaReference[] references;
+			try {
+				references = AreaReference.generateContiguous(version, name != null ? name.getRefersToFormula() : trimmed);
+			} catch (RuntimeException e) {
+				throw new BusinessException("Invalid cell descriptor '" + trimmed + "'");
+			}
+			for (AreaReference reference : references) {
+				CellReference first = reference.getFirstCell();
+				CellReference last = reference.getLastCell();
+				count += (long) (Math.abs(last.getRow() - first.getRow()) + 1) * (Math.abs(last.getCol() - first.getCol()) + 1);
+				areas.add(reference);
+			}
+		}
+		if (count > MAX_CELLS) {
+			throw new BusinessException("Too many cells requested: " + count + ", the maximum is " + MAX_CELLS
+					+ ". Use the Read_Excel_Sheet keyword in streaming mode to read large ranges");
+		}
+		return areas;
+	}
+
+	/**
+	 * Read the content of a sheet, each cell being returned as an output named by its address, ex: B3
+	 * <p>
+	 * If the input Streaming is set to true, the XLSX sheet is read with the POI event model, without loading
+	 * the workbook in memory, and the formulas are not evaluated: their cached results are returned. In this mode,
+	 * the rows can be filtered with FirstRow and LastRow (1-based, inclusive), the columns with Columns (ex: A,C:E),
+	 * and the Format input selects the output: "cells" (default, one output per cell), "json" (an array of objects
+	 * keyed by column, or by the values of the first non-empty row of the sheet if Header is true, whatever FirstRow)
+	 * or "csv" (one field per column up to the last selected column, or the widest selected row if Columns is not set,
+	 * found by a first pass over the sheet). The json and csv contents are written to OutputFile, returned as the File
+	 * output, or else to a temporary file whose content is attached if AsAttachment is true, or returned as the Data
+	 * output. Only the output to a file is done with a constant memory.
+	 */
+	@Keyword(schema = "{\"properties\":{" + "\"File\":{\"type\":\"string\"}," + "\"Sheet\":{\"type\":\"string\"},"
+			+ "\"Streaming\":{\"type\":\"boolean\"}," + "\"FirstRow\":{\"type\":\"integer\"},"
+			+ "\"LastRow\":{\"type\":\"integer\"}," + "\"Columns\":{\"type\":\"string\"},"
+			+ "\"Format\":{\"type\":\"string\",\"enum\":[\"cells\",\"json\",\"csv\"]},"
+			+ "\"Header\":{\"type\":\"boolean\"}," + "\"AsAttachment\":{\"type\":\"boolean\"},"
+			+ "\"OutputFile\":{\"type\":\"string\"}"
+			+ "},\"required\":[\"File\"]}", properties = { "" },
 			description = "Keyword used for reading the content of a sheet.")
 	public void Read_Excel_Sheet() throws FileNotFoundException, IOException {
 		String fileName = input.getString("File");
@@ -65,9 +317,16 @@ public class ExcelKeywords extends AbstractEnhancedKeyword {
 
 		File workbookFile = getWorkbookFile(fileName);
 
+		if (input.getBoolean("Streaming", false)) {
+			readSheetStreaming(workbookFile, sheetName);
+			return;
+		}
+
 		int numberOfRows = 0, numberOfColumns = 0;
-		try (Workbook workbook = WorkbookFactory.create(workbookFile)) {
+		try (Workbook workbook = WorkbookFactory.create(workbookFile, null, true)) {
 			Sheet sheet = getSheet(sheetName, workbook);
+			FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+			DataFormatter dataFormatter = new DataFormatter();
 			int firstRowNum = sheet.getFirstRowNum();
 			int lastRowNum = sheet.getLastRowNum();
 			numberOfRows = lastRowNum + 1;
@@ -79,7 +338,7 @@ public class ExcelKeywords extends AbstractEnhancedKeyword {
 					for (int cellNum = firstCellNum; cellNum < lastCellNum; cellNum++) {
 						Cell cell = row.getCell(cellNum);
 						if(cell != null) {
-							String value = getCellValueAsString(workbook, cell);
+							String value = dataFormatter.formatCellValue(cell, evaluator);
 							String colString = CellReference.convertNumToColString(cellNum);
 							String cellAddress = colString + (rowNum + 1);
 							output.add(cellAddress, value);
@@ -95,6 +354,84 @@ public class ExcelKeywords extends AbstractEnhancedKeyword {
 		output.add("rows", Integer.toString(numberOfRows));
 	}
 
+	private void readSheetStreaming(File workbookFile, String sheetName) throws IOException {
+		int firstRow = input.getInt("FirstRow", 1) - 1;
+		int lastRow = input.getInt("LastRow", Integer.MAX_VALUE) - 1;
+		String columnsInput = input.getString("Columns", null);
+		BitSet columns = columnsInput != null ? StreamingSheetReader.parseColumns(columnsInput) : null;
+		String format = input.getString("Format", "cells");
+
+		// the number of the last row read and the number of columns, as returned by the non streaming mode
+		int[] size = new int[2];
+		if (format.equals("cells")) {
+			new StreamingSheetReader(firstRow, lastRow, columns).read(workbookFile, sheetName, (rowNum, cells) -> {
+				cells.forEach((column, value) -> output.add(CellReference.convertNumToColString(column) + (rowNum + 1), value));
+				updateSize(size, rowNum, cells);
+			});
+		} else if (format.equals("json") || format.equals("csv")) {
+			String outputFile = input.getString("OutputFile", null);
+			Path path = outputFile != null ? Paths.get(outputFile) : Files.createTempFile("sheet", "." + format);
+			try {
+				int dataFirstRow = firstRow;
+				SheetWriter writer;
+				if (format.equals("json")) {
+					Map<Integer, String> keys = new HashMap<>();
+					if (input.getBoolean("Header", false)) {
+						// the header is the first row of the sheet, the data rows following it
+						int[] headerRow = { -1 };
+						new StreamingSheetReader(0, lastRow, columns).readFirstRow(workbookFile, sheetName, (rowNum, cells) -> {
+							keys.putAll(cells);
+							headerRow[0] = rowNum;
+							updateSize(size, rowNum, cells);
+						});
+						dataFirstRow = Math.max(firstRow, headerRow[0] + 1);
+					}
+					writer = SheetWriter.json(Files.newBufferedWriter(path, StandardCharsets.UTF_8), keys);
+				} else {
+					BitSet csvColumns = columns;
+					if (csvColumns == null) {
+						// all rows get as many fields as the widest selected row
+						int[] width = new int[2];
+						new StreamingSheetReader(firstRow, lastRow, null).read(workbookFile, sheetName,
+								(rowNum, cells) -> updateSize(width, rowNum, cells));
+						csvColumns = new BitSet();
+						csvColumns.set(0, width[1]);
+					}
+					writer = SheetWriter.csv(Files.newBufferedWriter(path, StandardCharsets.UTF_8), csvColumns);
+				}
+				try (SheetWriter sheetWriter = writer) {
+					new StreamingSheetReader(dataFirstRow, lastRow, columns).read(workbookFile, sheetName, (rowNum, cells) -> {
+						sheetWriter.row(rowNum, cells);
+						updateSize(size, rowNum, cells);
+					});
+				}
+				if (outputFile != null) {
+					output.add("File", path.toString());
+				} else if (input.getBoolean("AsAttachment", false)) {
+					String attachmentName = (sheetName != null ? sheetName : "Sheet") + "." + format;
+					output.addAttachment(AttachmentHelper.generateAttachmentFromByteArray(Files.readAllBytes(path), attachmentName));
+				} else {
+					output.add("Data", Files.readString(path));
+				}
+			} finally {
+				if (outputFile == null) {
+					Files.deleteIfExists(path);
+				}
+			}
+		} else {
+			throw new BusinessException("Unsupported format '" + format + "', expected cells, json or csv");
+		}
+		output.add("columns", Integer.toString(size[1]));
+		output.add("rows", Integer.toString(size[0]));
+	}
+
+	private static void updateSize(int[] size, int rowNum, Map<Integer, String> cells) {
+		size[0] = rowNum + 1;
+		for (int column : cells.keySet()) {
+			size[1] = Math.max(size[1], column + 1);
+		}
+	}
+
 	private File getWorkbookFile(String fileName) {
 		File workbookFile = new File(fileName);
 		if (!workbookFile.exists() || !workbookFile.canRead()) {
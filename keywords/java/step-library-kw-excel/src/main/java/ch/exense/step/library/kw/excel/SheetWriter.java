@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.excel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.apache.poi.ss.util.CellReference;
+
+import ch.exense.step.library.commons.StreamingSheetReader;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+
+/**
+ * Writer of the rows read by the {@link StreamingSheetReader} in a compact format, closing the underlying writer
+ */
+abstract class SheetWriter implements StreamingSheetReader.RowHandler<IOException>, Closeable {
+
+	protected final Writer writer;
+
+	protected SheetWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Write the rows as a json array of objects, ex: [{"A":"1","B":"2"}]
+	 *
+	 * @param keys the keys of the objects by column index, ex: the values of a header row. The columns
+	 *             without key are keyed by their name
+	 */
+	static SheetWriter json(Writer writer, Map<Integer, String> keys) {
+		return new JsonSheetWriter(writer, keys);
+	}
+
+	/**
+	 * Write the rows as CSV, each row having one field per selected column, the empty cells being
+	 * written as empty values
+	 *
+	 * @param columns the selected columns
+	 */
+	static SheetWriter csv(Writer writer, BitSet columns) {
+		return new CsvSheetWriter(writer, columns);
+	}
+
+	private static class JsonSheetWriter extends SheetWriter {
+
+		private final JsonGenerator generator;
+		private final Map<Integer, String> keys;
+
+		private JsonSheetWriter(Writer writer, Map<Integer, String> keys) {
+			super(writer);
+			this.generator = Json.createGenerator(writer);
+			this.keys = keys;
+			generator.writeStartArray();
+		}
+
+		@Override
+		public void row(int rowNum, Map<Integer, String> cells) {
+			generator.writeStartObject();
+			cells.forEach((column, value) -> {
+				String key = keys.get(column);
+				generator.write(key != null ? key : CellReference.convertNumToColString(column), value);
+			});
+			generator.writeEnd();
+		}
+
+		@Override
+		public void close() {
+			generator.writeEnd();
+			generator.close();
+		}
+	}
+
+	private static class CsvSheetWriter extends SheetWriter {
+
+		private final BitSet columns;
+
+		private CsvSheetWriter(Writer writer, BitSet columns) {
+			super(writer);
+			this.columns = columns;
+		}
+
+		@Override
+		public void row(int rowNum, Map<Integer, String> cells) throws IOException {
+			boolean first = true;
+			for (int column = columns.nextSetBit(0); column >= 0; column = columns.nextSetBit(column + 1)) {
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				String value = cells.get(column);
+				if (value != null) {
+					writeValue(value);
+				}
+			}
+			writer.write("\r\n");
+		}
+
+		private void writeValue(String value) throws IOException {
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(value.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(value);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+}
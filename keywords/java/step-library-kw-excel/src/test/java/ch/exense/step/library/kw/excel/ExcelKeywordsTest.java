@@ -16,6 +16,10 @@
 package ch.exense.step.library.kw.excel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -64,6 +68,116 @@ public class ExcelKeywordsTest {
 		assertEquals("0.0167777778", payload.getString("B10"));
 	}
 
+	@Test
+	public void readSheetStreaming() throws Exception {
+		String path = getPathToExcel();
+		String input = Json.createObjectBuilder().add("File", path).add("Streaming", true).build().toString();
+		Output<JsonObject> output = ctx.run("Read_Excel_Sheet", input);
+		JsonObject payload = output.getPayload();
+		assertEquals("2", payload.getString("columns"));
+		assertEquals("10", payload.getString("rows"));
+		assertEquals("1/1/16", payload.getString("B1"));
+		assertEquals("12:00:00", payload.getString("B2"));
+		assertEquals("100", payload.getString("B3"));
+		assertEquals("100.1", payload.getString("B4"));
+		assertEquals("TRUE", payload.getString("B5"));
+		assertEquals("String with\nnew line", payload.getString("B6"));
+		assertEquals("0.22", payload.getString("B7"));
+		assertEquals("0.0167777778", payload.getString("B10"));
+
+		input = Json.createObjectBuilder().add("File", path).add("Streaming", true).add("Format", "json")
+				.add("FirstRow", 3).add("LastRow", 4).add("Columns", "B").build().toString();
+		output = ctx.run("Read_Excel_Sheet", input);
+		assertEquals("[{\"B\":\"100\"},{\"B\":\"100.1\"}]", output.getPayload().getString("Data"));
+		assertEquals("4", output.getPayload().getString("rows"));
+
+		input = Json.createObjectBuilder().add("File", path).add("Streaming", true).add("Format", "csv")
+				.add("LastRow", 2).build().toString();
+		output = ctx.run("Read_Excel_Sheet", input);
+		assertEquals("Date,1/1/16\r\nTime,12:00:00\r\n", output.getPayload().getString("Data"));
+
+		input = Json.createObjectBuilder().add("File", path).add("Streaming", true).add("Format", "csv")
+				.add("AsAttachment", true).build().toString();
+		output = ctx.run("Read_Excel_Sheet", input);
+		assertEquals(1, output.getAttachments().size());
+
+		// the header is the first row of the sheet, even if the data rows start later
+		File outputFile = File.createTempFile("sheet", ".json");
+		outputFile.deleteOnExit();
+		input = Json.createObjectBuilder().add("File", path).add("Streaming", true).add("Format", "json")
+				.add("Header", true).add("FirstRow", 3).add("LastRow", 4).add("Columns", "B")
+				.add("OutputFile", outputFile.getAbsolutePath()).build().toString();
+		output = ctx.run("Read_Excel_Sheet", input);
+		assertEquals(outputFile.getAbsolutePath(), output.getPayload().getString("File"));
+		assertEquals("[{\"1/1/16\":\"100\"},{\"1/1/16\":\"100.1\"}]", Files.readString(outputFile.toPath()));
+	}
+
+	@Test
+	public void readCells() throws Exception {
+		String path = getPathToExcel();
+		String input = Json.createObjectBuilder().add("File", path).add("Cells", "B1:B3, B10, C1").build().toString();
+
+		Output<JsonObject> output = ctx.run("Get_Excel_Cache_Statistics", "{}");
+		long hits = output.getPayload().getJsonNumber("ExcelWorkbookCache_Hits").longValue();
+
+		ctx.run("Read_Excel_Cells", input);
+		output = ctx.run("Read_Excel_Cells", input);
+		JsonObject payload = output.getPayload();
+		assertEquals(5, payload.getInt("Count"));
+		assertEquals("1/1/16", payload.getString("B1"));
+		assertEquals("12:00:00", payload.getString("B2"));
+		assertEquals("100", payload.getString("B3"));
+		assertEquals("0.0167777778", payload.getString("B10"));
+		assertEquals("", payload.getString("C1"));
+
+		output = ctx.run("Get_Excel_Cache_Statistics", "{}");
+		assertEquals(hits + 1, output.getPayload().getJsonNumber("ExcelWorkbookCache_Hits").longValue());
+
+		input = Json.createObjectBuilder().add("File", path).add("Cells", "A1:Z10000").build().toString();
+		output = ctx.run("Read_Excel_Cells", input);
+		assertTrue(output.getError().getMsg().startsWith("Too many cells requested: 260000"));
+	}
+
+	@Test
+	public void dataPool() throws Exception {
+		String path = getPathToExcel();
+		JsonObject pool = Json.createObjectBuilder().add("File", path).add("Header", false).build();
+		ctx.run("Reset_Excel_Data_Pool", pool.toString());
+
+		Output<JsonObject> output = ctx.run("Get_Excel_Data_Pool_Row", pool.toString());
+		assertEquals("Date", output.getPayload().getString("A"));
+		assertEquals("1/1/16", output.getPayload().getString("B"));
+		assertEquals(1, output.getPayload().getInt("RowNumber"));
+		output = ctx.run("Get_Excel_Data_Pool_Row", pool.toString());
+		assertEquals("Time", output.getPayload().getString("A"));
+		assertEquals(2, output.getPayload().getInt("RowNumber"));
+
+		String unique = Json.createObjectBuilder(pool).add("Mode", "unique").build().toString();
+		for (int i = 1; i <= 10; i++) {
+			output = ctx.run("Get_Excel_Data_Pool_Row", unique);
+			assertEquals(i, output.getPayload().getInt("RowNumber"));
+		}
+		output = ctx.run("Get_Excel_Data_Pool_Row", unique);
+		assertEquals("The data pool is exhausted, all its 10 rows have been used", output.getError().getMsg());
+
+		String sticky = Json.createObjectBuilder(pool).add("Mode", "sticky").build().toString();
+		int rowNumber = ctx.run("Get_Excel_Data_Pool_Row", sticky).getPayload().getInt("RowNumber");
+		assertEquals(rowNumber, ctx.run("Get_Excel_Data_Pool_Row", sticky).getPayload().getInt("RowNumber"));
+		// the rows are assigned again from the start of a reset pool
+		ExecutionContext otherSession = KeywordRunner.getExecutionContext(ExcelKeywords.class);
+		assertEquals(rowNumber + 1, otherSession.run("Get_Excel_Data_Pool_Row", sticky).getPayload().getInt("RowNumber"));
+		ctx.run("Reset_Excel_Data_Pool", pool.toString());
+		assertEquals(1, otherSession.run("Get_Excel_Data_Pool_Row", sticky).getPayload().getInt("RowNumber"));
+		assertEquals(2, ctx.run("Get_Excel_Data_Pool_Row", sticky).getPayload().getInt("RowNumber"));
+
+		// the header row names the columns
+		String withHeader = Json.createObjectBuilder().add("File", path).build().toString();
+		ctx.run("Reset_Excel_Data_Pool", withHeader);
+		output = ctx.run("Get_Excel_Data_Pool_Row", withHeader);
+		assertEquals("12:00:00", output.getPayload().getString("1/1/16"));
+		assertEquals(2, output.getPayload().getInt("RowNumber"));
+	}
+
 	private String getPathToExcel() {
 		return ExcelKeywordsTest.class.getResource("Excel1.xlsx").getPath();
 	}
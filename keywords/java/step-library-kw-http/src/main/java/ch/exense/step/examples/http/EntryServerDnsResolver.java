@@ -16,8 +16,16 @@
 package ch.exense.step.examples.http;
 
 import java.net.InetAddress;
-
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 
@@ -28,30 +36,169 @@ import org.apache.http.impl.conn.SystemDefaultDnsResolver;
  * Allows to resolve given host name to a specific IP for simulating load
  * balancing
  * 
- * across multiple entry servers
+ * across multiple entry servers. When several target IPs are provided, the IP
+ * used for each new connection is chosen according to the {@link Policy}.
+ * Other hosts are resolved by the system resolver, the result being
+ * optionally cached for a given time to live.
+ * 
+ * The resolution cache, the open connections counted by the least connections
+ * policy and the round robin position are shared by all the resolvers of the
+ * agent, each http client creating its own resolver.
  * 
  * @author stephanda
  * 
  */
 public class EntryServerDnsResolver extends SystemDefaultDnsResolver {
 
-	private String hostWithCustomDns;
-	private InetAddress[] targetIP;
+	public enum Policy {
+		/** each new connection uses the next IP */
+		RoundRobin,
+		/** each new connection uses a random IP */
+		Random,
+		/** each new connection uses the IP having the fewest open connections */
+		LeastConnections,
+		/** all connections of the client use the same IP, the clients being spread over the IPs */
+		Sticky
+	}
+
+	// Spreads the sticky clients over the target IPs
+	private static final AtomicInteger stickyCounter = new AtomicInteger();
+	// Agent-wide state, keyed by the custom host, the target IP and the resolved host
+	private static final Map<String, AtomicInteger> roundRobinCounters = new ConcurrentHashMap<>();
+	private static final Map<InetAddress, Set<Socket>> openConnections = new ConcurrentHashMap<>();
+	private static final Map<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+
+	private final String hostWithCustomDns;
+	private final InetAddress[] targetIPs;
+	private final Policy policy;
+	private final long cacheTtlMs;
+	private final InetAddress stickyIP;
+	private final AtomicInteger roundRobinCounter;
+
+	private static class CachedAddresses {
+		private final InetAddress[] addresses;
+		private final long resolvedAt;
+
+		private CachedAddresses(InetAddress[] addresses, long resolvedAt) {
+			this.addresses = addresses;
+			this.resolvedAt = resolvedAt;
+		}
+	}
 
 	public EntryServerDnsResolver(String targetIP, String hostWithCustomDns) throws UnknownHostException {
-		this.targetIP = new InetAddress[] { InetAddress.getByName(targetIP) };
-		this.hostWithCustomDns = hostWithCustomDns.replaceFirst("https://", "").replaceFirst("http://", "");
+		this(List.of(targetIP), hostWithCustomDns, Policy.RoundRobin, 0);
+	}
+
+	/**
+	 * @param targetIPs         the IPs the host is resolved to, may be empty to only cache the resolutions
+	 * @param hostWithCustomDns the host resolved to the target IPs
+	 * @param policy            the policy used to choose the IP of each new connection
+	 * @param cacheTtlMs        time to live of the resolutions of the other hosts, 0 to disable caching
+	 */
+	public EntryServerDnsResolver(List<String> targetIPs, String hostWithCustomDns, Policy policy, long cacheTtlMs)
+			throws UnknownHostException {
+		this.targetIPs = new InetAddress[targetIPs.size()];
+		for (int i = 0; i < targetIPs.size(); i++) {
+			this.targetIPs[i] = InetAddress.getByName(targetIPs.get(i).trim());
+		}
+		this.hostWithCustomDns = hostWithCustomDns == null ? null
+				: hostWithCustomDns.replaceFirst("https://", "").replaceFirst("http://", "");
+		this.policy = policy;
+		this.cacheTtlMs = cacheTtlMs;
+		this.stickyIP = (policy == Policy.Sticky && this.targetIPs.length > 0) ?
+				this.targetIPs[Math.floorMod(stickyCounter.getAndIncrement(), this.targetIPs.length)] : null;
+		this.roundRobinCounter = roundRobinCounters.computeIfAbsent(String.valueOf(this.hostWithCustomDns),
+				h -> new AtomicInteger());
 	}
 
 	@Override
 	public InetAddress[] resolve(String host) throws UnknownHostException {
 		// If hostname is the one to be resolved to specific IP
-		if (host.contains(hostWithCustomDns)) {
-			return targetIP;
+		if (hostWithCustomDns != null && targetIPs.length > 0 && host.contains(hostWithCustomDns)) {
+			return new InetAddress[] { chooseTargetIP() };
 			// else fallback to default DNS resolver
+		} else if (cacheTtlMs > 0) {
+			long now = System.currentTimeMillis();
+			CachedAddresses cached = cache.get(host);
+			// the resolvers share the resolutions, each one applying its own time to live
+			if (cached == null || cached.resolvedAt + cacheTtlMs < now) {
+				// concurrent misses may resolve the host twice, the last result being kept
+				cached = new CachedAddresses(super.resolve(host), now);
+				cache.put(host, cached);
+			}
+			return cached.addresses.clone();
 		} else {
 			return super.resolve(host);
 		}
 	}
 
-}
\ No newline at end of file
+	private InetAddress chooseTargetIP() {
+		switch (policy) {
+		case Random:
+			return targetIPs[ThreadLocalRandom.current().nextInt(targetIPs.length)];
+		case LeastConnections:
+			InetAddress leastUsed = targetIPs[0];
+			int leastConnections = Integer.MAX_VALUE;
+			for (InetAddress targetIP : targetIPs) {
+				int connections = countOpenConnections(targetIP);
+				if (connections < leastConnections) {
+					leastUsed = targetIP;
+					leastConnections = connections;
+				}
+			}
+			return leastUsed;
+		case Sticky:
+			return stickyIP;
+		case RoundRobin:
+		default:
+			return targetIPs[Math.floorMod(roundRobinCounter.getAndIncrement(), targetIPs.length)];
+		}
+	}
+
+	private int countOpenConnections(InetAddress address) {
+		Set<Socket> sockets = openConnections.get(address);
+		if (sockets == null) {
+			return 0;
+		}
+		sockets.removeIf(Socket::isClosed);
+		return sockets.size();
+	}
+
+	/**
+	 * Notify the resolver of a new connection, required by the least connections policy.
+	 * The connections are counted per target IP for the whole agent
+	 *
+	 * @param address the address the socket is connected to
+	 * @param socket  the connected socket
+	 */
+	public void connected(InetAddress address, Socket socket) {
+		if (policy == Policy.LeastConnections) {
+			openConnections.computeIfAbsent(address, a -> ConcurrentHashMap.newKeySet()).add(socket);
+		}
+	}
+
+	/**
+	 * @return true if a host is resolved to the target IPs, false if the resolver only caches the resolutions
+	 */
+	public boolean hasTargetIPs() {
+		return hostWithCustomDns != null && targetIPs.length > 0;
+	}
+
+	/**
+	 * @return the target IPs, comma separated. For the sticky policy, the IP used by this resolver
+	 */
+	public String getTargetIP() {
+		if (stickyIP != null) {
+			return stickyIP.getHostAddress();
+		}
+		return Arrays.stream(targetIPs).map(InetAddress::getHostAddress).collect(Collectors.joining(","));
+	}
+
+	/**
+	 * @return the key identifying the resolution performed by this resolver
+	 */
+	@Override
+	public String toString() {
+		return hostWithCustomDns + "->" + getTargetIP() + " (" + policy + "), cacheTtlMs=" + cacheTtlMs;
+	}
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.examples.http;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Asynchronous http client executing batches of requests concurrently
+ * <p>
+ * Based on the JDK http client, requests to the same host are multiplexed over
+ * a single connection when HTTP/2 is negotiated. Cookies are kept across the
+ * batches executed with the same client but are not shared with {@link HttpClient}.
+ * <p>
+ * The SSL context (key store) and proxy settings are taken from the {@link HttpClient}
+ * of the session if any. The JDK client has no per client DNS resolver nor preemptive
+ * authentication, a client configured with a custom DNS resolution of its target IPs or
+ * with basic authentication is therefore rejected. As with {@link HttpClient}, the
+ * server certificates are trusted while their host names are verified.
+ */
+public class HttpBatchClient implements Closeable {
+
+	private final java.net.http.HttpClient client;
+	private final boolean http2;
+	private final int timeoutInMs;
+	private final HttpClient settings;
+
+	/**
+	 * @param timeoutInMs the connect and request timeout
+	 * @param http2       true to negotiate HTTP/2
+	 * @param settings    the client of the session providing the SSL context and proxy settings, null for the defaults
+	 */
+	public HttpBatchClient(int timeoutInMs, boolean http2, HttpClient settings) throws KeyStoreException, NoSuchAlgorithmException,
+			CertificateException, IOException, UnrecoverableKeyException, KeyManagementException {
+		if (settings != null && settings.getCustomDnsResolver() != null && settings.getCustomDnsResolver().hasTargetIPs()) {
+			throw new IllegalArgumentException("The custom DNS resolution of the http client is not supported by batches");
+		}
+		if (settings != null && settings.hasBasicAuth()) {
+			throw new IllegalArgumentException("The basic authentication of the http client is not supported by batches, "
+					+ "provide the Authorization header of the requests instead");
+		}
+		this.http2 = http2;
+		this.timeoutInMs = timeoutInMs;
+		this.settings = settings;
+		java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder()
+				.version(http2 ? java.net.http.HttpClient.Version.HTTP_2 : java.net.http.HttpClient.Version.HTTP_1_1)
+				.sslContext(settings != null ? settings.getSSLContext() : HttpClient.setSSLContext(null, null))
+				.connectTimeout(Duration.ofMillis(timeoutInMs))
+				.followRedirects(java.net.http.HttpClient.Redirect.NORMAL)
+				.cookieHandler(new CookieManager());
+		if (settings != null && settings.getProxyHost() != null && settings.getProxyPort() != null) {
+			builder.proxy(new NoProxySelector(settings.getProxyHost(), settings.getProxyPort(), settings.getNoProxy()));
+		}
+		this.client = builder.build();
+	}
+
+	/**
+	 * Proxy selector sending the requests through the proxy, except for the hosts of the
+	 * comma separated no proxy list, as done by the route planner of {@link HttpClient}
+	 */
+	private static class NoProxySelector extends ProxySelector {
+
+		private final List<Proxy> proxy;
+		private final List<String> noProxyHosts;
+
+		private NoProxySelector(String proxyHost, int proxyPort, String noProxy) {
+			this.proxy = List.of(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
+			this.noProxyHosts = (noProxy != null && !noProxy.isEmpty()) ? Arrays.asList(noProxy.split(",")) : List.of();
+		}
+
+		@Override
+		public List<Proxy> select(URI uri) {
+			return noProxyHosts.contains(uri.getHost()) ? List.of(Proxy.NO_PROXY) : proxy;
+		}
+
+		@Override
+		public void connectFailed(URI uri, SocketAddress address, IOException e) {
+		}
+	}
+
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * @return the client of the session the settings were taken from, null if none
+	 */
+	public HttpClient getSettings() {
+		return settings;
+	}
+
+	public int getTimeoutInMs() {
+		return timeoutInMs;
+	}
+
+	/**
+	 * One request of a batch, parsed from its json representation:
+	 * {"URL":"...", "Method":"GET", "Name":"...", "Headers":{"key":"value"}, "Data":"..."}
+	 */
+	public static class BatchRequest {
+
+		private final String name;
+		private final String url;
+		private final String method;
+		private final JsonObject headers;
+		private final String data;
+
+		public BatchRequest(JsonObject request) {
+			this.url = request.getString("URL");
+			this.method = request.getString("Method", "GET");
+			this.name = request.getString("Name", url);
+			this.headers = request.containsKey("Headers") ? request.getJsonObject("Headers") : JsonValue.EMPTY_JSON_OBJECT;
+			this.data = request.getString("Data", null);
+		}
+
+		/**
+		 * @param requests the json array of requests
+		 * @return the parsed requests
+		 * @throws IllegalArgumentException if a request is not an object, has no URL or has a field of the wrong type
+		 */
+		public static List<BatchRequest> fromJson(JsonArray requests) {
+			List<BatchRequest> batchRequests = new ArrayList<>(requests.size());
+			for (int i = 0; i < requests.size(); i++) {
+				int index = i;
+				JsonValue request = requests.get(index);
+				if (request.getValueType() != JsonValue.ValueType.OBJECT) {
+					throw new IllegalArgumentException("The request " + index + " is not a json object");
+				}
+				JsonObject requestObject = request.asJsonObject();
+				if (!requestObject.containsKey("URL")) {
+					throw new IllegalArgumentException("The request " + index + " has no URL");
+				}
+				for (String field : List.of("URL", "Method", "Name", "Data")) {
+					checkType(requestObject, field, JsonValue.ValueType.STRING, index);
+				}
+				checkType(requestObject, "Headers", JsonValue.ValueType.OBJECT, index);
+				if (requestObject.containsKey("Headers")) {
+					requestObject.getJsonObject("Headers").forEach((key, value) -> {
+						if (value.getValueType() != JsonValue.ValueType.STRING) {
+							throw new IllegalArgumentException("The header '" + key + "' of the request " + index + " is not a string");
+						}
+					});
+				}
+				batchRequests.add(new BatchRequest(requestObject));
+			}
+			return batchRequests;
+		}
+
+		private static void checkType(JsonObject request, String field, JsonValue.ValueType type, int index) {
+			if (request.containsKey(field) && request.get(field).getValueType() != type) {
+				throw new IllegalArgumentException("The field '" + field + "' of the request " + index + " must be of type "
+						+ type.name().toLowerCase());
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * The outcome of one request of a batch
+	 */
+	public static class BatchResult {
+
+		private final BatchRequest request;
+		private final long begin;
+		private final long duration;
+		private final int status;
+		private final long size;
+		private final String protocol;
+		private final Throwable error;
+
+		private BatchResult(BatchRequest request, long begin, long duration, int status, long size, String protocol, Throwable error) {
+			this.request = request;
+			this.begin = begin;
+			this.duration = duration;
+			this.status = status;
+			this.size = size;
+			this.protocol = protocol;
+			this.error = error;
+		}
+
+		public BatchRequest getRequest() {
+			return request;
+		}
+
+		public long getBegin() {
+			return begin;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getProtocol() {
+			return protocol;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Execute the requests concurrently, at most 'parallelism' of them being in flight at the same time
+	 *
+	 * @param requests    the requests to execute
+	 * @param parallelism the maximum number of concurrent requests
+	 * @return the results, in the order of the requests
+	 * @throws InterruptedException if the thread is interrupted while waiting for a free slot, the requests
+	 *                              already sent being cancelled
+	 */
+	public List<BatchResult> execute(List<BatchRequest> requests, int parallelism) throws InterruptedException {
+		Semaphore inFlight = new Semaphore(parallelism);
+		List<CompletableFuture<BatchResult>> futures = new ArrayList<>(requests.size());
+		List<CompletableFuture<?>> sent = new ArrayList<>(requests.size());
+		for (BatchRequest request : requests) {
+			try {
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				// the requests in flight would otherwise keep running after the keyword
+				sent.forEach(f -> f.cancel(true));
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+			long begin = System.currentTimeMillis();
+			CompletableFuture<BatchResult> future;
+			try {
+				CompletableFuture<java.net.http.HttpResponse<Long>> sending = client.sendAsync(buildRequest(request),
+						countingBodyHandler());
+				sent.add(sending);
+				future = sending.handle((response, error) -> {
+					long duration = System.currentTimeMillis() - begin;
+					if (error != null) {
+						Throwable cause = error.getCause() != null ? error.getCause() : error;
+						return new BatchResult(request, begin, duration, 0, 0, null, cause);
+					}
+					return new BatchResult(request, begin, duration, response.statusCode(), response.body(),
+							response.version().name(), null);
+				});
+			} catch (RuntimeException e) {
+				// invalid URL, method or restricted header
+				future = CompletableFuture.completedFuture(new BatchResult(request, begin, 0, 0, 0, null, e));
+			}
+			futures.add(future.whenComplete((r, e) -> inFlight.release()));
+		}
+		List<BatchResult> results = new ArrayList<>(futures.size());
+		futures.forEach(f -> results.add(f.join()));
+		return results;
+	}
+
+	private java.net.http.HttpRequest buildRequest(BatchRequest request) {
+		java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(URI.create(request.url))
+				.timeout(Duration.ofMillis(timeoutInMs))
+				.method(request.method, request.data == null ? java.net.http.HttpRequest.BodyPublishers.noBody()
+						: java.net.http.HttpRequest.BodyPublishers.ofString(request.data));
+		request.headers.forEach((key, value) -> builder.header(key, ((JsonString) value).getString()));
+		return builder.build();
+	}
+
+	/**
+	 * The bodies are only counted, to keep the memory usage independent of the response sizes
+	 */
+	private static BodyHandler<Long> countingBodyHandler() {
+		return responseInfo -> {
+			CountingSubscriber subscriber = new CountingSubscriber();
+			return BodySubscribers.fromSubscriber(subscriber, CountingSubscriber::getSize);
+		};
+	}
+
+	private static class CountingSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+
+		private volatile long size = 0;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			buffers.forEach(b -> size += b.remaining());
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+		}
+
+		@Override
+		public void onComplete() {
+		}
+
+		private long getSize() {
+			return size;
+		}
+	}
+
+	@Override
+	public void close() {
+		client.close();
+	}
+}
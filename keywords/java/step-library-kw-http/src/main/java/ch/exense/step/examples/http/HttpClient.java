@@ -15,9 +15,16 @@
  ******************************************************************************/
 package ch.exense.step.examples.http;
 
+import ch.exense.step.library.commons.SSLContextFactory;
 import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpInetConnection;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.ParseException;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
@@ -28,43 +35,86 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.*;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class HttpClient {
 
 	private static final Logger logger = LoggerFactory.getLogger(HttpClient.class);
+	private static final int STREAM_BUFFER_SIZE = 65536;
+	private static final String REMOTE_ADDRESS = "step.http.remote-address";
 
 	protected CloseableHttpClient client;
 	protected HttpRequestBase request = null;
 	protected HttpClientContext context = null;
 	protected String targetIP = "";
+	protected PoolingHttpClientConnectionManager connectionManager;
 
 	private RequestConfig requestConfig;
+	private RequestConfig noRedirectRequestConfig;
+	private RequestTimings lastRequestTimings;
+
+	// Settings reused by the HttpBatchClient of the same session
+	private final SSLContext sslContext;
+	private final String proxyHost;
+	private final Integer proxyPort;
+	private final String noProxy;
+	private final EntryServerDnsResolver customDnsResolver;
+	private final boolean basicAuth;
 
 	public RequestConfig getRequestConfig() {
 		return requestConfig;
 	}
 
+	/**
+	 * @return the request configuration of the client, with or without redirects. The
+	 * configurations are immutable and built once for all requests
+	 */
+	public RequestConfig getRequestConfig(boolean redirectsEnabled) {
+		return redirectsEnabled ? requestConfig : noRedirectRequestConfig;
+	}
+
 	/**
 	 * Create a client and its context with provided SSL information, auth cache and
 	 * optionally a custom DNS resolved for load balancing
@@ -93,18 +143,74 @@ public class HttpClient {
 			String basicAuthHost, int basicAuthPort, String basicAuthUser, String basicAuthPassword, String proxyHost, Integer proxyPort, String noProxy)
 			throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
 			UnrecoverableKeyException, KeyManagementException {
+		this(timeoutInMs, jksPath, password, targetIP, hostWithCustomDns, basicAuthHostScheme, basicAuthHost, basicAuthPort,
+				basicAuthUser, basicAuthPassword, proxyHost, proxyPort, noProxy, new HttpConnectionPoolConfiguration());
+	}
+
+	/**
+	 * Create a client as above, using a connection manager configured with the
+	 * provided pool settings. If the pool is shared, the connection manager is
+	 * taken from the agent wide {@link HttpConnectionPools} and is not shut down
+	 * when this client is closed.
+	 *
+	 * @param poolConfiguration the settings of the connection pool
+	 */
+	public HttpClient(int timeoutInMs, String jksPath, String password, String targetIP, String hostWithCustomDns, String basicAuthHostScheme,
+			String basicAuthHost, int basicAuthPort, String basicAuthUser, String basicAuthPassword, String proxyHost, Integer proxyPort, String noProxy,
+			HttpConnectionPoolConfiguration poolConfiguration)
+			throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
+			UnrecoverableKeyException, KeyManagementException {
+		this(timeoutInMs, jksPath, password,
+				(targetIP != null && !targetIP.isEmpty()) ? new EntryServerDnsResolver(targetIP, hostWithCustomDns) : null,
+				basicAuthHostScheme, basicAuthHost, basicAuthPort, basicAuthUser, basicAuthPassword, proxyHost, proxyPort, noProxy,
+				poolConfiguration);
+	}
+
+	/**
+	 * Create a client as above, resolving the host names with the provided custom
+	 * DNS resolver
+	 *
+	 * @param customDnsResolver the resolver of the host names, null to use the system resolver
+	 */
+	public HttpClient(int timeoutInMs, String jksPath, String password, EntryServerDnsResolver customDnsResolver, String basicAuthHostScheme,
+			String basicAuthHost, int basicAuthPort, String basicAuthUser, String basicAuthPassword, String proxyHost, Integer proxyPort, String noProxy,
+			HttpConnectionPoolConfiguration poolConfiguration)
+			throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
+			UnrecoverableKeyException, KeyManagementException {
 		
 		//Logger LOG = (Logger) org.slf4j.LoggerFactory.getLogger("org.apache.http");
 		//((ch.qos.logback.classic.Logger) LOG).setLevel(Level.DEBUG);
 		
 		HttpClientBuilder httpClientBuilder = HttpClients.custom();
 		SSLContext sc = setSSLContext(jksPath, password);
-		httpClientBuilder.setSSLContext(sc);
+		this.sslContext = sc;
+		this.proxyHost = proxyHost;
+		this.proxyPort = proxyPort;
+		this.noProxy = noProxy;
+		this.customDnsResolver = customDnsResolver;
+		this.basicAuth = basicAuthUser != null && basicAuthPassword != null;
 		// If provided add a custom DNS resolver which will resolve the
 		// 'hostWithCustomDns' to the provided 'targetIP'
-		if (targetIP != null && !targetIP.isEmpty()) {
-			this.targetIP = targetIP;
-			httpClientBuilder.setDnsResolver(new EntryServerDnsResolver(targetIP, hostWithCustomDns));
+		DnsResolver dnsResolver;
+		if (customDnsResolver != null) {
+			this.targetIP = customDnsResolver.getTargetIP();
+			dnsResolver = customDnsResolver;
+		} else {
+			dnsResolver = SystemDefaultDnsResolver.INSTANCE;
+		}
+
+		// The SSL context and DNS resolver are owned by the connection manager
+		if (poolConfiguration.isShared()) {
+			String poolKey = HttpConnectionPools.buildKey(jksPath, password, proxyHost, proxyPort, noProxy, String.valueOf(customDnsResolver), poolConfiguration);
+			connectionManager = HttpConnectionPools.getOrCreate(poolKey, poolConfiguration.getEvictIdleConnectionsAfterMs(),
+					() -> createConnectionManager(sc, dnsResolver, poolConfiguration));
+			httpClientBuilder.setConnectionManager(connectionManager).setConnectionManagerShared(true);
+		} else {
+			connectionManager = createConnectionManager(sc, dnsResolver, poolConfiguration);
+			httpClientBuilder.setConnectionManager(connectionManager);
+			if (poolConfiguration.getEvictIdleConnectionsAfterMs() > 0) {
+				httpClientBuilder.evictIdleConnections(poolConfiguration.getEvictIdleConnectionsAfterMs(), TimeUnit.MILLISECONDS);
+			}
 		}
 		
 		// Create the http context and init Auth cache
@@ -133,6 +239,7 @@ public class HttpClient {
 				  .setConnectTimeout(timeoutInMs)
 				  .setConnectionRequestTimeout(timeoutInMs)
 				  .setSocketTimeout(timeoutInMs).build();
+		noRedirectRequestConfig = RequestConfig.copy(requestConfig).setRedirectsEnabled(false).build();
 
 		if(proxyHost != null && proxyPort != null) {
 			HttpHost proxy = new HttpHost(proxyHost, proxyPort);
@@ -154,6 +261,16 @@ public class HttpClient {
 		}
 
 		
+		// Record the address of the server actually used by each request
+		httpClientBuilder.addInterceptorFirst((HttpResponseInterceptor) (response, httpContext) -> {
+			HttpConnection connection = HttpCoreContext.adapt(httpContext).getConnection();
+			if (connection instanceof HttpInetConnection) {
+				httpContext.setAttribute(REMOTE_ADDRESS, ((HttpInetConnection) connection).getRemoteAddress());
+			}
+		});
+		
+		httpClientBuilder.setRequestExecutor(new TimedRequestExecutor());
+
 		//Build the client
 		this.client = httpClientBuilder.setDefaultRequestConfig(requestConfig).build();
 		
@@ -162,75 +279,229 @@ public class HttpClient {
 		context.setAuthCache(authCache);
 	}
 	
-	private SSLContext setSSLContext(String jksPath, String password) throws KeyStoreException, NoSuchAlgorithmException,
-			CertificateException, IOException, UnrecoverableKeyException, KeyManagementException {
-		KeyManager[] keyManagers;
-		if (jksPath != null && password != null) {
-			FileInputStream instream = new FileInputStream(new File(jksPath));
-			KeyStore keyStore = KeyStore.getInstance("jks");
-			keyStore.load((InputStream) instream, password.toCharArray());
-
-			KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-			keyFactory.init(keyStore, password.toCharArray());
-			keyManagers = keyFactory.getKeyManagers();
-		} else {
-			keyManagers = new KeyManager[0];
-		}
-
-		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-				return null;
+	private static PoolingHttpClientConnectionManager createConnectionManager(SSLContext sslContext, DnsResolver dnsResolver,
+			HttpConnectionPoolConfiguration poolConfiguration) {
+		// The custom resolver keeps track of the connections opened to each IP
+		EntryServerDnsResolver customDnsResolver = (dnsResolver instanceof EntryServerDnsResolver) ?
+				(EntryServerDnsResolver) dnsResolver : null;
+		// The DNS resolution, connect and TLS handshake times are reported to the timings of the current request
+		DnsResolver timedDnsResolver = host -> {
+			long start = System.nanoTime();
+			try {
+				return dnsResolver.resolve(host);
+			} finally {
+				RequestTimings timings = RequestTimings.current();
+				if (timings != null) {
+					timings.addDns(System.nanoTime() - start);
+				}
+			}
+		};
+		ConnectionSocketFactory plainSocketFactory = new PlainConnectionSocketFactory() {
+			@Override
+			public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+					InetSocketAddress localAddress, HttpContext context) throws IOException {
+				long start = System.nanoTime();
+				Socket connectedSocket = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+				RequestTimings timings = RequestTimings.current();
+				if (timings != null) {
+					timings.addConnect(System.nanoTime() - start);
+				}
+				if (customDnsResolver != null) {
+					customDnsResolver.connected(remoteAddress.getAddress(), connectedSocket);
+				}
+				return connectedSocket;
+			}
+		};
+		ConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier()) {
+			@Override
+			public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+					InetSocketAddress localAddress, HttpContext context) throws IOException {
+				RequestTimings timings = RequestTimings.current();
+				long start = System.nanoTime();
+				long tlsBefore = timings != null ? timings.getTlsNanos() : 0;
+				// connects the socket, then performs the handshake in createLayeredSocket
+				Socket connectedSocket = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+				if (timings != null) {
+					timings.addConnect(System.nanoTime() - start - (timings.getTlsNanos() - tlsBefore));
+				}
+				if (customDnsResolver != null) {
+					customDnsResolver.connected(remoteAddress.getAddress(), connectedSocket);
+				}
+				return connectedSocket;
 			}
 
-			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {
+			@Override
+			public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+				long start = System.nanoTime();
+				Socket sslSocket = super.createLayeredSocket(socket, target, port, context);
+				RequestTimings timings = RequestTimings.current();
+				if (timings != null) {
+					timings.addTls(System.nanoTime() - start);
+				}
+				return sslSocket;
 			}
+		};
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", plainSocketFactory)
+				.register("https", sslSocketFactory)
+				.build();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry, timedDnsResolver);
+		connectionManager.setMaxTotal(poolConfiguration.getMaxTotal());
+		connectionManager.setDefaultMaxPerRoute(poolConfiguration.getMaxPerRoute());
+		connectionManager.setValidateAfterInactivity(poolConfiguration.getValidateAfterInactivityMs());
+		return connectionManager;
+	}
+
+	/**
+	 * Request executor reporting the bytes sent and received and the time to first byte
+	 * of each exchange to the timings of the current request
+	 */
+	private static class TimedRequestExecutor extends HttpRequestExecutor {
 
-			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {
+		@Override
+		protected org.apache.http.HttpResponse doSendRequest(org.apache.http.HttpRequest request, HttpClientConnection conn,
+				HttpContext context) throws IOException, HttpException {
+			RequestTimings timings = RequestTimings.current();
+			long sentBytesBefore = conn.getMetrics().getSentBytesCount();
+			org.apache.http.HttpResponse response = super.doSendRequest(request, conn, context);
+			if (timings != null) {
+				timings.requestSent(conn.getMetrics().getSentBytesCount() - sentBytesBefore, conn.getMetrics());
 			}
-		} };
+			return response;
+		}
 
-		SSLContext sc = SSLContext.getInstance("SSL");
-		sc.init(keyManagers, trustAllCerts, new SecureRandom());
+		@Override
+		protected org.apache.http.HttpResponse doReceiveResponse(org.apache.http.HttpRequest request, HttpClientConnection conn,
+				HttpContext context) throws HttpException, IOException {
+			org.apache.http.HttpResponse response = super.doReceiveResponse(request, conn, context);
+			RequestTimings timings = RequestTimings.current();
+			if (timings != null) {
+				timings.responseReceived();
+			}
+			return response;
+		}
+	}
 
-		return sc;
-		//this.client = HttpClients.custom().setSSLContext(sc).build();
+	/**
+	 * @return the SSL context trusting all server certificates and presenting the
+	 * client certificates of the key store if provided, shared with the other clients
+	 * of the agent (see {@link SSLContextFactory})
+	 */
+	protected static SSLContext setSSLContext(String jksPath, String password) throws KeyStoreException, NoSuchAlgorithmException,
+			CertificateException, IOException, UnrecoverableKeyException, KeyManagementException {
+		return SSLContextFactory.getSSLContext("SSL", jksPath, password);
 	}
 
 	protected byte[] readResponse(CloseableHttpResponse response) throws UnsupportedOperationException, IOException {
 		if (response.getEntity() != null) {
-			int length = (int) response.getEntity().getContentLength();
-			if (length > 0 ) {
-				InputStream stream = response.getEntity().getContent();
-				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-				byte[] result = new byte[length];
-				int nRead;
-				while ((nRead = stream.read(result, 0, result.length)) != -1) {
-					buffer.write(result, 0, nRead);
-				}
-				return buffer.toByteArray();
-			} else {
-				return EntityUtils.toString(response.getEntity()).getBytes();
-			}
+			// The buffer is sized from the content length when provided
+			return EntityUtils.toByteArray(response.getEntity());
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Write the response body to the given file, keeping only its first bytes in memory
+	 *
+	 * @param response        the response to read
+	 * @param responseFile    the file to write the body to
+	 * @param maxInMemorySize the maximum number of bytes kept in memory
+	 * @param payloadPrefix   the stream receiving the bytes kept in memory
+	 * @return the total size of the body
+	 */
+	protected long streamResponse(CloseableHttpResponse response, File responseFile, int maxInMemorySize,
+			ByteArrayOutputStream payloadPrefix) throws IOException {
+		long size = 0;
+		try (FileChannel out = FileChannel.open(responseFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if (response.getEntity() != null) {
+				try (InputStream stream = response.getEntity().getContent()) {
+					// the first bytes are copied through a buffer to be kept in memory
+					byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+					int nRead;
+					while (size < maxInMemorySize && (nRead = stream.read(buffer)) != -1) {
+						out.write(ByteBuffer.wrap(buffer, 0, nRead));
+						payloadPrefix.write(buffer, 0, (int) Math.min(nRead, maxInMemorySize - size));
+						size += nRead;
+					}
+					// the rest is transferred without being kept in memory. The entity only provides an
+					// input stream, the channel wrapping it still copies the bytes through a transfer buffer
+					ReadableByteChannel in = Channels.newChannel(stream);
+					long transferred;
+					while ((transferred = out.transferFrom(in, size, Long.MAX_VALUE)) > 0) {
+						size += transferred;
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	private Charset getCharset(HttpEntity entity) {
+		try {
+			ContentType contentType = ContentType.get(entity);
+			if (contentType != null && contentType.getCharset() != null) {
+				return contentType.getCharset();
+			}
+		} catch (ParseException | UnsupportedCharsetException e) {
+			logger.debug("Unable to determine the charset of the response, using the default one", e);
+		}
+		return Charset.defaultCharset();
+	}
+
 	private List<BasicNameValuePair> toNameValues(List<Header> headerList) {
 		return headerList.stream().map(h->new BasicNameValuePair(h.getName(), h.getValue())).collect(Collectors.toList());
 	}
 
 	public HttpResponse executeRequestInContext(HttpRequest request)
 			throws ClientProtocolException, IOException, Exception {
+		return executeRequestInContext(request, null, 0);
+	}
+
+	/**
+	 * Execute the request in the client context. If a response file is provided,
+	 * the response body is streamed to it and only its first bytes are kept in memory
+	 *
+	 * @param request         the request to execute
+	 * @param responseFile    the file to stream the response body to, null to read it in memory
+	 * @param maxInMemorySize the maximum number of bytes kept in memory when streaming
+	 * @return the response
+	 */
+	public HttpResponse executeRequestInContext(HttpRequest request, File responseFile, int maxInMemorySize)
+			throws ClientProtocolException, IOException, Exception {
 		request.logDebugInfo();
+		context.removeAttribute(REMOTE_ADDRESS);
+		lastRequestTimings = RequestTimings.start();
 		try(CloseableHttpResponse httpResponse = this.client.execute(request, context)) {
 			int status = httpResponse.getStatusLine().getStatusCode();
 			List<BasicNameValuePair> responseHeaders = toNameValues(Arrays.asList(httpResponse.getAllHeaders()));
-			byte[] response = readResponse(httpResponse);
-			return new HttpResponse(response, responseHeaders, status);
+			Charset charset = getCharset(httpResponse.getEntity());
+			long transferStart = System.nanoTime();
+			try {
+				if (responseFile == null) {
+					byte[] response = readResponse(httpResponse);
+					return new HttpResponse(response, responseHeaders, status, charset);
+				} else {
+					ByteArrayOutputStream payloadPrefix = new ByteArrayOutputStream();
+					long responseSize = streamResponse(httpResponse, responseFile, maxInMemorySize, payloadPrefix);
+					return new HttpResponse(payloadPrefix.toByteArray(), responseFile, responseSize, responseHeaders, status, charset);
+				}
+			} finally {
+				lastRequestTimings.addTransfer(System.nanoTime() - transferStart);
+			}
+		} finally {
+			lastRequestTimings.stop();
 		}
 	}
 
+	/**
+	 * @return the timings of the last request executed by this client, also available if the request failed
+	 */
+	public RequestTimings getLastRequestTimings() {
+		return lastRequestTimings;
+	}
+
 	public void close() {
 		try {
 			if (this.client != null)
@@ -274,5 +545,40 @@ public class HttpClient {
 
 	public String getTargetIP() {
 		return this.targetIP;
+	}
+
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	public String getProxyHost() {
+		return proxyHost;
+	}
+
+	public Integer getProxyPort() {
+		return proxyPort;
+	}
+
+	public String getNoProxy() {
+		return noProxy;
+	}
+
+	/**
+	 * @return the custom DNS resolver of the client, null if the system resolver is used
+	 */
+	public EntryServerDnsResolver getCustomDnsResolver() {
+		return customDnsResolver;
+	}
+
+	public boolean hasBasicAuth() {
+		return basicAuth;
+	}
+
+	/**
+	 * @return the IP of the server the last request was sent to, null if unknown
+	 */
+	public String getRemoteAddress() {
+		Object remoteAddress = context.getAttribute(REMOTE_ADDRESS);
+		return remoteAddress instanceof InetAddress ? ((InetAddress) remoteAddress).getHostAddress() : null;
 	}													
 }
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.examples.http;
+
+/**
+ * Settings of the connection manager used by an {@link HttpClient}
+ * <p>
+ * When shared, the connection manager is reused by all clients of the agent
+ * having the same client configuration (see {@link HttpConnectionPools})
+ */
+public class HttpConnectionPoolConfiguration {
+
+	public static final int DEFAULT_MAX_TOTAL = 20;
+	public static final int DEFAULT_MAX_PER_ROUTE = 2;
+	public static final int DEFAULT_SHARED_MAX_TOTAL = 200;
+	public static final int DEFAULT_SHARED_MAX_PER_ROUTE = 100;
+	public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MS = 2000;
+
+	private final boolean shared;
+	private final int maxTotal;
+	private final int maxPerRoute;
+	private final int validateAfterInactivityMs;
+	private final long evictIdleConnectionsAfterMs;
+
+	public HttpConnectionPoolConfiguration() {
+		this(false, DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_VALIDATE_AFTER_INACTIVITY_MS, 0);
+	}
+
+	/**
+	 * @param shared                      true to reuse the connection manager across sessions
+	 * @param maxTotal                    maximum number of connections of the pool
+	 * @param maxPerRoute                 maximum number of connections per route
+	 * @param validateAfterInactivityMs   period of inactivity after which a pooled connection is re-validated
+	 * @param evictIdleConnectionsAfterMs idle time after which connections are evicted from the pool, 0 to disable
+	 */
+	public HttpConnectionPoolConfiguration(boolean shared, int maxTotal, int maxPerRoute, int validateAfterInactivityMs,
+			long evictIdleConnectionsAfterMs) {
+		this.shared = shared;
+		this.maxTotal = maxTotal;
+		this.maxPerRoute = maxPerRoute;
+		this.validateAfterInactivityMs = validateAfterInactivityMs;
+		this.evictIdleConnectionsAfterMs = evictIdleConnectionsAfterMs;
+	}
+
+	public boolean isShared() {
+		return shared;
+	}
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	public int getValidateAfterInactivityMs() {
+		return validateAfterInactivityMs;
+	}
+
+	public long getEvictIdleConnectionsAfterMs() {
+		return evictIdleConnectionsAfterMs;
+	}
+
+	@Override
+	public String toString() {
+		return "maxTotal=" + maxTotal + ", maxPerRoute=" + maxPerRoute + ", validateAfterInactivityMs="
+				+ validateAfterInactivityMs + ", evictIdleConnectionsAfterMs=" + evictIdleConnectionsAfterMs;
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.examples.http;
+
+import ch.exense.step.library.commons.SSLContextFactory;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Agent wide registry of the connection managers shared between http clients
+ * <p>
+ * The connection managers are keyed by the client configuration (key store,
+ * proxy, custom DNS resolution and pool settings) so that only clients which
+ * could use the same connections share them. Cookies, authentication and
+ * request settings stay bound to each client.
+ */
+public class HttpConnectionPools {
+
+	private static final Map<String, SharedConnectionPool> pools = new ConcurrentHashMap<>();
+
+	private static class SharedConnectionPool {
+
+		private final PoolingHttpClientConnectionManager connectionManager;
+		private final IdleConnectionEvictor evictor;
+
+		private SharedConnectionPool(PoolingHttpClientConnectionManager connectionManager, long evictIdleConnectionsAfterMs) {
+			this.connectionManager = connectionManager;
+			if (evictIdleConnectionsAfterMs > 0) {
+				evictor = new IdleConnectionEvictor(connectionManager, evictIdleConnectionsAfterMs, TimeUnit.MILLISECONDS);
+				evictor.start();
+			} else {
+				evictor = null;
+			}
+		}
+	}
+
+	/**
+	 * Build the key of a client configuration. The key store is identified by its
+	 * path, modification time, size and password hash so that a replaced key store
+	 * gets a new connection manager and SSL context, as in {@link SSLContextFactory}
+	 */
+	public static String buildKey(String jksPath, String password, String proxyHost, Integer proxyPort, String noProxy,
+			String customDns, HttpConnectionPoolConfiguration configuration) throws IOException, NoSuchAlgorithmException {
+		return "keyStore=" + SSLContextFactory.getKeyStoreKey(jksPath, password) + ", proxy=" + proxyHost + ":" + proxyPort
+				+ ", noProxy=" + noProxy + ", customDns=" + customDns + ", " + configuration;
+	}
+
+	/**
+	 * Get the shared connection manager registered for the given key, or create it
+	 * with the provided supplier
+	 *
+	 * @param key                         the key of the client configuration
+	 * @param evictIdleConnectionsAfterMs idle time after which connections are evicted, 0 to disable
+	 * @param connectionManagerSupplier   the factory of the connection manager if not existing yet
+	 * @return the shared connection manager
+	 */
+	public static PoolingHttpClientConnectionManager getOrCreate(String key, long evictIdleConnectionsAfterMs,
+			Supplier<PoolingHttpClientConnectionManager> connectionManagerSupplier) {
+		return pools.computeIfAbsent(key,
+				k -> new SharedConnectionPool(connectionManagerSupplier.get(), evictIdleConnectionsAfterMs)).connectionManager;
+	}
+
+	/**
+	 * @return the total statistics of each shared pool, by key
+	 */
+	public static Map<String, PoolStats> getStatistics() {
+		Map<String, PoolStats> statistics = new TreeMap<>();
+		pools.forEach((key, pool) -> statistics.put(key, pool.connectionManager.getTotalStats()));
+		return statistics;
+	}
+
+	/**
+	 * Shutdown and unregister all shared connection managers
+	 */
+	public static void closeAll() {
+		pools.keySet().forEach(key -> {
+			SharedConnectionPool pool = pools.remove(key);
+			if (pool != null) {
+				if (pool.evictor != null) {
+					pool.evictor.shutdown();
+				}
+				pool.connectionManager.shutdown();
+			}
+		});
+	}
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package ch.exense.step.examples.http;
 
+import ch.exense.step.library.commons.LRUCache;
 import jakarta.json.JsonObject;
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
@@ -23,6 +24,7 @@ import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
@@ -42,6 +44,8 @@ import java.util.List;
 public class HttpRequest extends HttpEntityEnclosingRequestBase {
 
 	private static final Logger logger = LoggerFactory.getLogger(HttpRequest.class);
+	// Content types of the uploaded files, by file extension
+	private static final LRUCache<String, ContentType> contentTypeCache = new LRUCache<>(256);
 	String method = HttpGet.METHOD_NAME;
 	String body = "";
 
@@ -81,7 +85,7 @@ public class HttpRequest extends HttpEntityEnclosingRequestBase {
 				File fileToUpload = new File(nvp.getValue());
 				FileBody fileBody = null;
 				try {
-					fileBody = new FileBody(fileToUpload, ContentType.parse(Files.probeContentType(Paths.get(fileToUpload.toURI()))));
+					fileBody = new FileBody(fileToUpload, getContentType(fileToUpload));
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
@@ -94,6 +98,40 @@ public class HttpRequest extends HttpEntityEnclosingRequestBase {
 		setEntity(entity);
 	}
 
+	private static ContentType getContentType(File file) throws IOException {
+		String fileName = file.getName();
+		int extensionIndex = fileName.lastIndexOf('.');
+		String extension = extensionIndex >= 0 ? fileName.substring(extensionIndex).toLowerCase() : "";
+		ContentType contentType = contentTypeCache.get(extension);
+		if (contentType == null) {
+			String probedContentType = Files.probeContentType(Paths.get(file.toURI()));
+			contentType = probedContentType != null ? ContentType.parse(probedContentType) : ContentType.DEFAULT_BINARY;
+			contentTypeCache.put(extension, contentType);
+		}
+		return contentType;
+	}
+
+	/**
+	 * Send the content of the file as request body. The file is streamed
+	 * while sending the request and never loaded in memory
+	 *
+	 * @param file        the file to send
+	 * @param contentType the content type of the body, application/octet-stream if null
+	 */
+	public HttpRequest setFilePayload(File file, String contentType) {
+		body = "<content of file " + file.getAbsolutePath() + ">";
+		setEntity(new FileEntity(file, contentType != null ? ContentType.parse(contentType) : ContentType.DEFAULT_BINARY));
+		return this;
+	}
+
+	/**
+	 * @return the size of the request body in bytes, 0 if none or unknown (chunked)
+	 */
+	public long getPayloadSize() {
+		HttpEntity entity = getEntity();
+		return entity != null ? Math.max(entity.getContentLength(), 0) : 0;
+	}
+
 	public HttpRequest setRowPayload(String payload) {
 		body = payload;
 		setEntity(new StringEntity(payload, ContentType.create("text/plain", "UTF-8")));
@@ -15,6 +15,12 @@
  ******************************************************************************/
 package ch.exense.step.examples.http;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,28 +28,103 @@ import org.apache.http.message.BasicNameValuePair;
 
 public class HttpResponse {
 
+	private static final int CONTENT_WINDOW_SIZE = 65536;
+
 	private final byte[] responsePayload;
 	private final List<BasicNameValuePair> responseHeaders;
 	private final List<String> cookies;
 	private final int status;
+	private final Charset charset;
+	private final File responseFile;
+	private final long responseSize;
+	private String responsePayloadAsString;
 
 	public HttpResponse(byte[] responsePayload, List<BasicNameValuePair> responseHeaders, int status) throws Exception {
+		this(responsePayload, responseHeaders, status, Charset.defaultCharset());
+	}
+
+	public HttpResponse(byte[] responsePayload, List<BasicNameValuePair> responseHeaders, int status, Charset charset) throws Exception {
+		this(responsePayload, null, responsePayload == null ? 0 : responsePayload.length, responseHeaders, status, charset);
+	}
+
+	/**
+	 * @param responsePayload the response payload, or its first bytes if the response has been streamed to a file
+	 * @param responseFile    the file containing the whole response payload, null if not streamed
+	 * @param responseSize    the total size of the response payload
+	 */
+	public HttpResponse(byte[] responsePayload, File responseFile, long responseSize, List<BasicNameValuePair> responseHeaders,
+			int status, Charset charset) throws Exception {
 		super();
 		this.responsePayload = responsePayload;
+		this.responseFile = responseFile;
+		this.responseSize = responseSize;
 		this.responseHeaders = responseHeaders;
 		this.cookies = buildCookies(responseHeaders);
 		this.status = status;
+		this.charset = charset;
 	}
 
+	/**
+	 * @return the response payload, truncated if it was streamed to a file and exceeded the in-memory size
+	 */
 	public String getResponsePayload() {
-		return responsePayload==null?
-				"" : new String(responsePayload);
+		if (responsePayloadAsString == null) {
+			responsePayloadAsString = responsePayload == null ?
+					"" : new String(responsePayload, charset);
+		}
+		return responsePayloadAsString;
 	}
 
 	public byte[] getResponsePayloadAsBytes() {
 		return responsePayload;
 	}
 
+	/**
+	 * @return true if only the first bytes of the response payload are available in memory
+	 */
+	public boolean isTruncated() {
+		return responsePayload != null && responseSize > responsePayload.length;
+	}
+
+	public File getResponseFile() {
+		return responseFile;
+	}
+
+	public long getResponseSize() {
+		return responseSize;
+	}
+
+	/**
+	 * Check if the response payload contains the given text. If the payload is
+	 * truncated, the response file is scanned with a bounded sliding window
+	 *
+	 * @param text the text to search
+	 * @return true if found
+	 * @throws IOException if the response file cannot be read
+	 */
+	public boolean contains(String text) throws IOException {
+		if (!isTruncated() || text.isEmpty()) {
+			return getResponsePayload().contains(text);
+		}
+		int overlap = text.length() - 1;
+		char[] buffer = new char[Math.max(CONTENT_WINDOW_SIZE, 2 * text.length())];
+		try (Reader reader = new InputStreamReader(new FileInputStream(responseFile), charset)) {
+			int length = 0;
+			int nRead;
+			while ((nRead = reader.read(buffer, length, buffer.length - length)) != -1) {
+				length += nRead;
+				if (new String(buffer, 0, length).contains(text)) {
+					return true;
+				}
+				// keep the end of the window in case the text is split across two reads
+				int kept = Math.min(overlap, length);
+				System.arraycopy(buffer, length - kept, buffer, 0, kept);
+				length = kept;
+			}
+		}
+		return false;
+	}
+
 	public BasicNameValuePair getResponseHeader(String name) {
 		BasicNameValuePair result;
 		for (BasicNameValuePair header: responseHeaders) {
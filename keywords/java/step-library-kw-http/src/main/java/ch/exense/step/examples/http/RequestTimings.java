@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.examples.http;
+
+import org.apache.http.HttpConnectionMetrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breakdown of the time spent executing one request: DNS resolution, TCP connect,
+ * TLS handshake, time to first byte and body transfer, as well as the bytes
+ * exchanged and whether a pooled connection was reused
+ * <p>
+ * The timings are collected by the DNS resolver, socket factories and request
+ * executor of the {@link HttpClient} for the request being executed by the current
+ * thread. When the request is redirected, the phases of all exchanges are summed.
+ */
+public class RequestTimings {
+
+	private static final ThreadLocal<RequestTimings> current = new ThreadLocal<>();
+
+	private final long begin = System.currentTimeMillis();
+	private long dnsNs;
+	private long connectNs;
+	private long tlsNs;
+	private long ttfbNs;
+	private long transferNs;
+	private long bytesSent;
+	private long bytesReceived;
+	private boolean connectionReused = true;
+
+	private long requestSentNs;
+	private HttpConnectionMetrics metrics;
+	private long receivedBytesBefore;
+
+	/**
+	 * Start collecting the timings of a new request executed by the current thread
+	 */
+	static RequestTimings start() {
+		RequestTimings timings = new RequestTimings();
+		current.set(timings);
+		return timings;
+	}
+
+	/**
+	 * @return the timings of the request executed by the current thread, null if none
+	 */
+	static RequestTimings current() {
+		return current.get();
+	}
+
+	void stop() {
+		completeExchange();
+		current.remove();
+	}
+
+	void addDns(long nanos) {
+		dnsNs += nanos;
+	}
+
+	void addConnect(long nanos) {
+		connectNs += nanos;
+		connectionReused = false;
+	}
+
+	void addTls(long nanos) {
+		tlsNs += nanos;
+	}
+
+	long getTlsNanos() {
+		return tlsNs;
+	}
+
+	void addTransfer(long nanos) {
+		transferNs += nanos;
+	}
+
+	void requestSent(long sentBytes, HttpConnectionMetrics metrics) {
+		completeExchange();
+		bytesSent += sentBytes;
+		this.metrics = metrics;
+		receivedBytesBefore = metrics.getReceivedBytesCount();
+		requestSentNs = System.nanoTime();
+	}
+
+	void responseReceived() {
+		ttfbNs += System.nanoTime() - requestSentNs;
+	}
+
+	private void completeExchange() {
+		if (metrics != null) {
+			bytesReceived += metrics.getReceivedBytesCount() - receivedBytesBefore;
+			metrics = null;
+		}
+	}
+
+	/**
+	 * @return the begin of the request, as epoch milliseconds
+	 */
+	public long getBegin() {
+		return begin;
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public long getDnsTimeMs() {
+		return toMillis(dnsNs);
+	}
+
+	public long getConnectTimeMs() {
+		return toMillis(connectNs);
+	}
+
+	public long getTlsTimeMs() {
+		return toMillis(tlsNs);
+	}
+
+	public long getTimeToFirstByteMs() {
+		return toMillis(ttfbNs);
+	}
+
+	public long getTransferTimeMs() {
+		return toMillis(transferNs);
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public boolean isConnectionReused() {
+		return connectionReused;
+	}
+
+	/**
+	 * Add the timings to the given measurement data
+	 */
+	public void addTo(Map<String, Object> measureData) {
+		measureData.put("DnsTime", getDnsTimeMs());
+		measureData.put("ConnectTime", getConnectTimeMs());
+		measureData.put("TlsTime", getTlsTimeMs());
+		measureData.put("TimeToFirstByte", getTimeToFirstByteMs());
+		measureData.put("TransferTime", getTransferTimeMs());
+		measureData.put("BytesSent", bytesSent);
+		measureData.put("BytesReceived", bytesReceived);
+		measureData.put("ConnectionReused", connectionReused);
+	}
+}
@@ -15,22 +15,37 @@
  ******************************************************************************/
 package ch.exense.step.examples.http.keywords;
 
+import ch.exense.step.examples.http.HttpBatchClient;
+import ch.exense.step.examples.http.EntryServerDnsResolver;
 import ch.exense.step.examples.http.HttpClient;
+import ch.exense.step.examples.http.HttpConnectionPoolConfiguration;
+import ch.exense.step.examples.http.HttpConnectionPools;
 import ch.exense.step.examples.http.HttpRequest;
 import ch.exense.step.examples.http.HttpResponse;
+import ch.exense.step.examples.http.RequestTimings;
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
 import ch.exense.step.library.commons.BusinessException;
-import com.jayway.jsonpath.JsonPath;
+import ch.exense.step.library.commons.JsonEvaluator;
+import ch.exense.step.library.commons.LRUCache;
+import ch.exense.step.library.commons.SSLContextFactory;
+import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.PathNotFoundException;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
 import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.Input;
 import step.handlers.javahandler.Keyword;
 
 import javax.net.ssl.SSLException;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -45,6 +60,7 @@ import java.util.stream.Collectors;
 public class HttpClientKeyword extends AbstractEnhancedKeyword {
 
     private static final String HTTP_CLIENT = "httpClient";
+    private static final String HTTP_BATCH_CLIENT = "httpBatchClient";
     private static final String DATA = "Data";
     public static final String HEADER_PREFIX = "Header_";
     public static final String PARAM_PREFIX = "FormData_";
@@ -52,6 +68,12 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
     public static final String CHECK_PREFIX = "Check_";
     public static final String MULTIPART_PARAM_PREFIX = "MultiPartFormData_";
 
+    private static final int EXTRACTION_CACHE_SIZE = 1000;
+    // Compiled extraction expressions are shared by all sessions of the agent, the json paths being cached by the JsonEvaluator
+    private static final LRUCache<String, Pattern> patternCache = new LRUCache<>(EXTRACTION_CACHE_SIZE);
+    private static final Pattern CONTENT_DISPOSITION_FILENAME = Pattern.compile(".*filename ?= ?([^\"]+?);?.*");
+    private static final Pattern CONTENT_DISPOSITION_QUOTED_FILENAME = Pattern.compile(".*filename ?= ?\"([^\"]+?)\".*");
+
     /**
      * step Keyword to init an Apache HTTP client the client will be placed in the
      * current step session
@@ -62,11 +84,20 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
      * BasicAuthHostScheme: target host scheme (i.e. https)
      * BasicAuthPort: target host port number
      * KeyStorePath (optional)
-     * CustomDnsResolverTargetIP: enable a custom DNS resolver, requires "CustomDnsResolverHostWithCustomDns"
+     * CustomDnsResolverTargetIP: enable a custom DNS resolver, requires "CustomDnsResolverHostWithCustomDns".
+     * Comma separated list of IPs to spread the connections over several servers
      * CustomDnsResolverHostWithCustomDns: requests to this host will be resolved to the "CustomDnsResolverTargetIP"
+     * CustomDnsResolverPolicy: choice of the IP of each new connection, one of RoundRobin, Random,
+     * LeastConnections or Sticky (all connections of the session use the same IP), default RoundRobin
+     * DnsCacheTtlMs: time to live of the resolutions of the other hosts cached by the client (default 0, disabled)
      * ProxyHost (optional)
      * ProxyPort (mandatory if ProxyHost is provided)
      * NoProxy: comma separated list of host(s) to not use the Proxy for (does not support wildcard)
+     * SharedConnectionPool: reuse the connections across sessions having the same client configuration (default false)
+     * MaxTotal: maximum number of connections of the pool (default 20, 200 if shared)
+     * MaxPerRoute: maximum number of connections per route (default 2, 100 if shared)
+     * ValidateAfterInactivityMs: inactivity period after which a pooled connection is re-validated (default 2000)
+     * EvictIdleConnectionsAfterMs: idle time after which pooled connections are closed (default 0, disabled)
      *
      * @throws IOException
      * @throws CertificateException
@@ -85,9 +116,16 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
             + "\"TimeoutInMs\":{\"type\":\"string\"},"
             + "\"CustomDnsResolverTargetIP\":{\"type\":\"string\"},"
             + "\"CustomDnsResolverHostWithCustomDns\":{\"type\":\"string\"},"
+            + "\"CustomDnsResolverPolicy\":{\"type\":\"string\",\"enum\":[\"RoundRobin\",\"Random\",\"LeastConnections\",\"Sticky\"]},"
+            + "\"DnsCacheTtlMs\":{\"type\":\"integer\"},"
             + "\"ProxyHost\":{\"type\":\"string\"},"
             + "\"ProxyPort\":{\"type\":\"integer\"},"
-            + "\"NoProxy\":{\"type\":\"string\"}"
+            + "\"NoProxy\":{\"type\":\"string\"},"
+            + "\"SharedConnectionPool\":{\"type\":\"boolean\"},"
+            + "\"MaxTotal\":{\"type\":\"integer\"},"
+            + "\"MaxPerRoute\":{\"type\":\"integer\"},"
+            + "\"ValidateAfterInactivityMs\":{\"type\":\"integer\"},"
+            + "\"EvictIdleConnectionsAfterMs\":{\"type\":\"integer\"}"
             + "},\"required\":[]}", properties = {""},
             description = "Keyword used to init an Apache HTTP client.")
     public void InitHttpClient() throws UnrecoverableKeyException, KeyManagementException, KeyStoreException,
@@ -100,8 +138,9 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
         int basicAuthPort = 0;
         String keyStorePath = null;
         String keyStorePassword = null;
-        String customDnsResolverTargetIP = null;
+        List<String> customDnsResolverTargetIPs = List.of();
         String customDnsResolverHostWithCustomDns = null;
+        EntryServerDnsResolver.Policy customDnsResolverPolicy = EntryServerDnsResolver.Policy.RoundRobin;
         String proxyHost = null;
         Integer proxyPort = null;
         String noProxy = null;
@@ -130,10 +169,24 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
                 throw new BusinessException(
                         "'CustomDnsResolverTargetIP' provided without 'CustomDnsResolverHostWithCustomDns'.");
             } else {
-                customDnsResolverTargetIP = input.getString("CustomDnsResolverTargetIP");
+                customDnsResolverTargetIPs = Arrays.stream(input.getString("CustomDnsResolverTargetIP").split(","))
+                        .map(String::trim).filter(ip -> !ip.isEmpty()).collect(Collectors.toList());
                 customDnsResolverHostWithCustomDns = input.getString("CustomDnsResolverHostWithCustomDns");
+                String policy = input.getString("CustomDnsResolverPolicy", customDnsResolverPolicy.name());
+                try {
+                    customDnsResolverPolicy = EntryServerDnsResolver.Policy.valueOf(policy);
+                } catch (IllegalArgumentException e) {
+                    throw new BusinessException("Invalid 'CustomDnsResolverPolicy' '" + policy + "', expected one of "
+                            + Arrays.toString(EntryServerDnsResolver.Policy.values()));
+                }
             }
         }
+        int dnsCacheTtlMs = input.getInt("DnsCacheTtlMs", 0);
+        EntryServerDnsResolver customDnsResolver = null;
+        if (!customDnsResolverTargetIPs.isEmpty() || dnsCacheTtlMs > 0) {
+            customDnsResolver = new EntryServerDnsResolver(customDnsResolverTargetIPs, customDnsResolverHostWithCustomDns,
+                    customDnsResolverPolicy, dnsCacheTtlMs);
+        }
         if (input.containsKey("BasicAuthUser")) {
             basicAuthUser = input.getString("BasicAuthUser");
             basicAuthPassword = getPassword(basicAuthUser);
@@ -149,9 +202,16 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
             }
         }
         int timeoutInMs = Integer.parseInt(input.getString("TimeoutInMs", "60000"));
-        httpClient = new HttpClient(timeoutInMs, keyStorePath, keyStorePassword, customDnsResolverTargetIP,
-                customDnsResolverHostWithCustomDns, basicAuthHostScheme, basicAuthHost, basicAuthPort, basicAuthUser,
-                basicAuthPassword, proxyHost, proxyPort, noProxy);
+        boolean sharedConnectionPool = input.getBoolean("SharedConnectionPool", false);
+        HttpConnectionPoolConfiguration poolConfiguration = new HttpConnectionPoolConfiguration(sharedConnectionPool,
+                input.getInt("MaxTotal", sharedConnectionPool ?
+                        HttpConnectionPoolConfiguration.DEFAULT_SHARED_MAX_TOTAL : HttpConnectionPoolConfiguration.DEFAULT_MAX_TOTAL),
+                input.getInt("MaxPerRoute", sharedConnectionPool ?
+                        HttpConnectionPoolConfiguration.DEFAULT_SHARED_MAX_PER_ROUTE : HttpConnectionPoolConfiguration.DEFAULT_MAX_PER_ROUTE),
+                input.getInt("ValidateAfterInactivityMs", HttpConnectionPoolConfiguration.DEFAULT_VALIDATE_AFTER_INACTIVITY_MS),
+                input.getInt("EvictIdleConnectionsAfterMs", 0));
+        httpClient = new HttpClient(timeoutInMs, keyStorePath, keyStorePassword, customDnsResolver, basicAuthHostScheme, basicAuthHost, basicAuthPort, basicAuthUser,
+                basicAuthPassword, proxyHost, proxyPort, noProxy, poolConfiguration);
 
         getSession().put(HTTP_CLIENT, httpClient);
     }
@@ -165,13 +225,30 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
      * pass header parameters, ex: key: Header_accept, value: application/json,
      * text/plain key: Header_accept-language, value:
      * en-US,en;q=0.9,fr;q=0.8,de;q=0.7 Data (optional): body payload as string
-     * (used only for Post method and only if param_* are not set) FormData_*
+     * (used only for Post method and only if param_* are not set) DataFile (optional):
+     * path of a file streamed as body payload (only if Data is not set), its content
+     * type being set by DataContentType (default: application/octet-stream) FormData_*
      * (optional): naming convention to pass request parameters, ex: key:
      * FormData_user, value: myname key: FormData_password, value: mypassword
      * Extract_*: naming convention to pass content check strings, ex: key:
      * extract_myId, value: regexp as string with one group Check_* (optional):
      * naming convention to pass content check strings, ex: key: check_pageTitle,
      * value: 'my website title' ReturnResponse: default true
+     * StreamResponse (optional): stream the response body to a file instead of
+     * reading it in memory, default false. Only the first MaxInMemoryResponseSize
+     * bytes (default 1MB) are kept in memory, regexp extractions are evaluated on
+     * them while checks are evaluated on the whole body
+     * ResponseFile (optional): file to stream the response body to, a temporary
+     * file deleted at the end of the keyword is used otherwise
+     * <p>
+     * The request and response sizes as well as the throughput (bytes/s) are added
+     * to the measurement data as RequestSize, ResponseSize and Throughput
+     * <p>
+     * The time spent in each phase of the request is added to the measurement data as
+     * DnsTime, ConnectTime, TlsTime, TimeToFirstByte and TransferTime (in ms), together
+     * with BytesSent, BytesReceived (on the wire, headers included) and ConnectionReused.
+     * DetailedMeasures (optional): also report each phase as a separate measure named
+     * after the request with the suffix _DNS, _Connect, _TLS, _TTFB or _Transfer, default false
      * <p>
      * <p>
      * Keyword output StatusCode: Request status code Headers: headers Cookies:
@@ -188,6 +265,8 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
                             @Input(name = "Headers", defaultValue = "{}") HashMap<String, String> headers,
                             @Input(name = "FormData") HashMap<String, String> formDataMap,
                             @Input(name = "Data", defaultValue = "") String payload,
+                            @Input(name = "DataFile") String payloadFilePath,
+                            @Input(name = "DataContentType") String payloadContentType,
                             @Input(name = "MultiPartFormData") HashMap<String, String> multiPartFormDataMap,
                             @Input(name = "ExtractRegexp") HashMap<String, String> extractRegexpMap,
                             @Input(name = "ExtractJsonPath", defaultValue="{}") HashMap<String, String> extractJsonPath,
@@ -195,6 +274,10 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
                             @Input(name = "Checks") HashMap<String, String> textChecks,
                             @Input(name = "ReturnResponse", defaultValue = "true") boolean returnResponse,
                             @Input(name = "SaveResponseAsAttachment", defaultValue = "false") boolean saveResponseAsAttachment,
+                            @Input(name = "StreamResponse", defaultValue = "false") boolean streamResponse,
+                            @Input(name = "ResponseFile") String responseFilePath,
+                            @Input(name = "MaxInMemoryResponseSize", defaultValue = "1048576") int maxInMemoryResponseSize,
+                            @Input(name = "DetailedMeasures", defaultValue = "false") boolean detailedMeasures,
                             @Input(name = "Name", defaultValue = "GET") String name) throws Exception {
         String requestName = Objects.requireNonNullElse(name, url);
 
@@ -209,7 +292,7 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
         }
         Map<String, Pattern> extractRegexp = new HashMap<>();
         if (extractRegexpMap != null) {
-            extractRegexpMap.forEach((k,v) -> extractRegexp.put(k, Pattern.compile(v)));
+            extractRegexpMap.forEach((k,v) -> extractRegexp.put(k, patternCache.computeIfAbsent(v, Pattern::compile)));
         }
 
         HttpClient httpClient = getHttpClientFromSession();
@@ -222,32 +305,58 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
         // Init request
         HttpRequest request = new HttpRequest(url, method);
 
-        RequestConfig clientDefaultRequestConfig = httpClient.getRequestConfig();
-        RequestConfig config = RequestConfig.custom()
-                .setConnectTimeout(clientDefaultRequestConfig.getConnectTimeout())
-                .setConnectionRequestTimeout(clientDefaultRequestConfig.getConnectionRequestTimeout())
-                .setSocketTimeout(clientDefaultRequestConfig.getSocketTimeout())
-                .setRedirectsEnabled(enableRedirect)
-                .build();
-
-        request.setConfig(config);
+        request.setConfig(httpClient.getRequestConfig(enableRedirect));
         headers.forEach((k, v) -> request.appendHeader(k, v));
 
         if (!formData.isEmpty()) {
             request.setParams(formData);
         } else if (payload != null && !payload.isEmpty()) {
             request.setRowPayload(payload);
+        } else if (payloadFilePath != null && !payloadFilePath.isEmpty()) {
+            File payloadFile = new File(payloadFilePath);
+            if (!payloadFile.isFile()) {
+                throw new BusinessException("The DataFile '" + payloadFilePath + "' does not exist");
+            }
+            request.setFilePayload(payloadFile, payloadContentType);
         } else if (!multiPartFormData.isEmpty()) {
             request.setMultiPartParams(multiPartFormData);
         }
 
+        File responseFile = null;
+        boolean temporaryResponseFile = false;
+        if (responseFilePath != null && !responseFilePath.isEmpty()) {
+            responseFile = new File(responseFilePath);
+        } else if (streamResponse) {
+            responseFile = File.createTempFile("HttpResponse", ".data");
+            temporaryResponseFile = true;
+        }
+        try {
+            executeRequest(httpClient, request, requestName, responseFile, maxInMemoryResponseSize, detailedMeasures,
+                    returnResponse, saveResponseAsAttachment, extractRegexp, extractJsonPath, textChecks);
+        } finally {
+            if (temporaryResponseFile && !responseFile.delete()) {
+                responseFile.deleteOnExit();
+            }
+        }
+    }
+
+    private void executeRequest(HttpClient httpClient, HttpRequest request, String requestName, File responseFile,
+                                int maxInMemoryResponseSize, boolean detailedMeasures,
+                                boolean returnResponse, boolean saveResponseAsAttachment,
+                                Map<String, Pattern> extractRegexp, Map<String, String> extractJsonPath,
+                                Map<String, String> textChecks) throws Exception {
         Map<String, Object> measureData = new HashMap<>();
-        measureData.put("DestIP", httpClient.getTargetIP());
 
         HttpResponse httpResponse;
         try {
             output.startMeasure(requestName);
-            httpResponse = httpClient.executeRequestInContext(request);
+            long start = System.nanoTime();
+            httpResponse = httpClient.executeRequestInContext(request, responseFile, maxInMemoryResponseSize);
+            long durationNs = Math.max(System.nanoTime() - start, 1);
+            long requestSize = request.getPayloadSize();
+            measureData.put("RequestSize", requestSize);
+            measureData.put("ResponseSize", httpResponse.getResponseSize());
+            measureData.put("Throughput", (long) ((requestSize + httpResponse.getResponseSize()) * 1e9 / durationNs));
         } catch (SSLException e) {
             output.setBusinessError("SSL error: "+e.getMessage());
             output.addAttachment(AttachmentHelper.generateAttachmentForException(e));
@@ -262,24 +371,47 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
             measureData.put("ExceptionMessage", (e.getMessage() == null) ? "null" : e.getMessage());
             throw e;
         } finally {
+            // the IP actually connected to, which is the one chosen by the custom DNS resolver if any
+            String remoteAddress = httpClient.getRemoteAddress();
+            measureData.put("DestIP", remoteAddress != null ? remoteAddress : httpClient.getTargetIP());
+            RequestTimings timings = httpClient.getLastRequestTimings();
+            if (timings != null) {
+                timings.addTo(measureData);
+            }
             output.stopMeasure(measureData);
+            if (detailedMeasures && timings != null) {
+                addPhaseMeasures(requestName, timings);
+            }
         }
 
+        //Content checks and extractions
+        ArrayList<String> businessErrors = new ArrayList<>();
+
         output.add("StatusCode", Integer.toString(httpResponse.getStatus()));
         output.add("Headers", httpResponse.getResponseHeaders().toString());
         output.add("Cookies", httpResponse.getCookies().toString());
         String responsePayload = httpResponse.getResponsePayload();
+        if (responseFile != null) {
+            output.add("ResponseSize", httpResponse.getResponseSize());
+            if (httpResponse.isTruncated()) {
+                output.add("technicalWarning", "Response size exceeded " + maxInMemoryResponseSize
+                        + " bytes. Only the beginning of the response is returned and used for the regexp extractions.");
+            }
+        }
         if (returnResponse) {
-            if (saveResponseAsAttachment) {
+            if (saveResponseAsAttachment && httpResponse.isTruncated()) {
+                businessErrors.add("The response exceeds " + maxInMemoryResponseSize + " bytes and cannot be attached. " +
+                        "Use the ResponseFile input to keep it");
+            } else if (saveResponseAsAttachment) {
                 String attachmentName = "attachment.data";
 
                 BasicNameValuePair result;
                 if ((result = httpResponse.getResponseHeader("Content-Disposition")) != null) {
-                    Matcher pattern_1 = Pattern.compile(".*filename ?= ?([^\"]+?);?.*").matcher(result.getValue());
+                    Matcher pattern_1 = CONTENT_DISPOSITION_FILENAME.matcher(result.getValue());
                     if (pattern_1.find()) {
                         attachmentName = pattern_1.group(1);
                     }
-                    Matcher pattern_2 = Pattern.compile(".*filename ?= ?\"([^\"]+?)\".*").matcher(result.getValue());
+                    Matcher pattern_2 = CONTENT_DISPOSITION_QUOTED_FILENAME.matcher(result.getValue());
                     if (pattern_2.find()) {
                         attachmentName = pattern_2.group(1);
                     }
@@ -291,9 +423,6 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
             }
         }
 
-        //Content checks and extractions
-        ArrayList<String> businessErrors = new ArrayList<>();
-
         // extract all fields
         for (String key : extractRegexp.keySet()) {
             String value = "";
@@ -311,9 +440,18 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
             }
         }
 
+        // the response is parsed once for all json paths
+        JsonEvaluator jsonEvaluator = null;
         for (String pathKey : extractJsonPath.keySet()) {
+            if (httpResponse.isTruncated()) {
+                businessErrors.add("ExtractJsonPath '" + pathKey + "' cannot be evaluated, the response exceeds " + maxInMemoryResponseSize + " bytes");
+                continue;
+            }
             try {
-                Object value = JsonPath.read(responsePayload, extractJsonPath.get(pathKey));
+                if (jsonEvaluator == null) {
+                    jsonEvaluator = new JsonEvaluator(responsePayload, Configuration.defaultConfiguration());
+                }
+                Object value = jsonEvaluator.read(extractJsonPath.get(pathKey));
                 Class<?> valueType = value.getClass();
                 if (Boolean.class.isAssignableFrom(valueType) || valueType.equals(boolean.class)) {
                     output.add(pathKey, (boolean) value);
@@ -333,11 +471,11 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
 
         // do all checks
         if (textChecks != null) {
-            textChecks.forEach((k, v) -> {
-                if (!responsePayload.contains(v)) {
-                    businessErrors.add("Content check '" + k + "' with text '" + v + "' was not found");
+            for (Map.Entry<String, String> check : textChecks.entrySet()) {
+                if (!httpResponse.contains(check.getValue())) {
+                    businessErrors.add("Content check '" + check.getKey() + "' with text '" + check.getValue() + "' was not found");
                 }
-            });
+            }
         }
 
         if (!businessErrors.isEmpty()) {
@@ -345,6 +483,105 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
         }
     }
 
+    private void addPhaseMeasures(String requestName, RequestTimings timings) {
+        // the phases are sequential, each one being reported as starting at the end of the previous one
+        long begin = timings.getBegin();
+        addMeasure(requestName + "_DNS", begin, timings.getDnsTimeMs(), null);
+        begin += timings.getDnsTimeMs();
+        addMeasure(requestName + "_Connect", begin, timings.getConnectTimeMs(), null);
+        begin += timings.getConnectTimeMs();
+        addMeasure(requestName + "_TLS", begin, timings.getTlsTimeMs(), null);
+        begin += timings.getTlsTimeMs();
+        addMeasure(requestName + "_TTFB", begin, timings.getTimeToFirstByteMs(), null);
+        begin += timings.getTimeToFirstByteMs();
+        addMeasure(requestName + "_Transfer", begin, timings.getTransferTimeMs(), null);
+    }
+
+    /**
+     * step Keyword to execute a batch of HTTP requests concurrently, emulating the
+     * parallel resource fetch of a browser within one keyword call
+     * <p>
+     * Keyword inputs:
+     * Requests: json array of requests, ex: [{"URL":"https://...", "Method":"GET",
+     * "Name":"logo", "Headers":{"accept":"image/png"}, "Data":"..."}]
+     * Parallelism (optional): maximum number of requests in flight, default 6
+     * Http2 (optional): negotiate HTTP/2 to multiplex the requests sent to the same host, default true
+     * TimeoutInMs (optional): connect and request timeout, default 60000
+     * <p>
+     * The key store and proxy settings of the client created by InitHttpClient are reused.
+     * Its custom DNS resolution (CustomDnsResolverTargetIP) and basic authentication are not
+     * supported by the batch client and are reported as business error, cookies are not shared.
+     * <p>
+     * One measure is reported per request, named after its Name (default: URL).
+     * Keyword output Results: json array with the name, status code, duration,
+     * size and protocol of each request. Failed requests are reported as business error.
+     *
+     * @throws Exception
+     */
+    @Keyword(description = "Keyword used to execute a batch of HTTP requests concurrently")
+    public void HttpRequestBatch(@Input(name = "Requests", required = true) String requests,
+                                 @Input(name = "Parallelism", defaultValue = "6") int parallelism,
+                                 @Input(name = "Http2", defaultValue = "true") boolean http2,
+                                 @Input(name = "TimeoutInMs", defaultValue = "60000") int timeoutInMs) throws Exception {
+        List<HttpBatchClient.BatchRequest> batchRequests;
+        try (JsonReader reader = Json.createReader(new StringReader(requests))) {
+            batchRequests = HttpBatchClient.BatchRequest.fromJson(reader.readArray());
+        } catch (JsonException | IllegalArgumentException e) {
+            throw new BusinessException("Invalid 'Requests' input, a json array of requests with at least an URL is expected: "
+                    + e.getMessage(), e);
+        }
+        if (parallelism < 1) {
+            throw new BusinessException("The 'Parallelism' input must be greater than 0");
+        }
+
+        HttpClient httpClient = getHttpClientFromSession();
+        HttpBatchClient batchClient = (HttpBatchClient) getSession().get(HTTP_BATCH_CLIENT);
+        if (batchClient == null || batchClient.isHttp2() != http2 || batchClient.getTimeoutInMs() != timeoutInMs
+                || batchClient.getSettings() != httpClient) {
+            if (batchClient != null) {
+                batchClient.close();
+                getSession().put(HTTP_BATCH_CLIENT, null);
+            }
+            try {
+                batchClient = new HttpBatchClient(timeoutInMs, http2, httpClient);
+            } catch (IllegalArgumentException e) {
+                throw new BusinessException(e.getMessage());
+            }
+            getSession().put(HTTP_BATCH_CLIENT, batchClient);
+        }
+
+        List<HttpBatchClient.BatchResult> results = batchClient.execute(batchRequests, parallelism);
+
+        JsonArrayBuilder resultsBuilder = Json.createArrayBuilder();
+        List<String> errors = new ArrayList<>();
+        for (HttpBatchClient.BatchResult result : results) {
+            String requestName = result.getRequest().getName();
+            Map<String, Object> measureData = new HashMap<>();
+            JsonObjectBuilder resultBuilder = Json.createObjectBuilder()
+                    .add("Name", requestName)
+                    .add("Duration", result.getDuration());
+            if (result.getError() != null) {
+                Throwable error = result.getError();
+                measureData.put("ExceptionType", error.getClass().toString());
+                measureData.put("ExceptionMessage", (error.getMessage() == null) ? "null" : error.getMessage());
+                resultBuilder.add("Error", error.getClass().getSimpleName() + ": " + error.getMessage());
+                errors.add("Request '" + requestName + "' failed: " + error.getClass().getSimpleName() + ": " + error.getMessage());
+            } else {
+                measureData.put("StatusCode", Integer.toString(result.getStatus()));
+                measureData.put("Protocol", result.getProtocol());
+                resultBuilder.add("StatusCode", Integer.toString(result.getStatus()))
+                        .add("Size", result.getSize())
+                        .add("Protocol", result.getProtocol());
+            }
+            addMeasure(requestName, result.getBegin(), result.getDuration(), measureData);
+            resultsBuilder.add(resultBuilder);
+        }
+        output.add("Results", resultsBuilder.build().toString());
+        if (!errors.isEmpty()) {
+            output.setBusinessError(String.join(", ", errors));
+        }
+    }
+
     /**
      * step Keyword to close the Apache HTTP clients stored in the step session
      */
@@ -352,12 +589,43 @@ public class HttpClientKeyword extends AbstractEnhancedKeyword {
     public void CloseHttpClient() {
         HttpClient httpClient = getHttpClientFromSession();
         httpClient.close();
+        HttpBatchClient batchClient = (HttpBatchClient) getSession().get(HTTP_BATCH_CLIENT);
+        if (batchClient != null) {
+            batchClient.close();
+            getSession().put(HTTP_BATCH_CLIENT, null);
+        }
     }
 
     protected HttpClient getHttpClientFromSession() {
         return (HttpClient) getSession().get(HTTP_CLIENT);
     }
 
+    /**
+     * step Keyword reporting the statistics of the agent wide shared connection pools
+     * and extraction caches
+     * <p>
+     * For each pool, the number of leased, available and pending connections as well as the
+     * maximum number of connections are reported as measures, the pool key being added
+     * as measurement data. The hits, misses and size of the regexp, JSON path and SSL context
+     * caches are reported as HttpPatternCache_*, HttpJsonPathCache_* and HttpSSLContextCache_* measures
+     */
+    @Keyword(description = "Keyword used to report the statistics of the shared HTTP connection pools as measures")
+    public void GetHttpClientStatistics() {
+        int poolIndex = 0;
+        for (Map.Entry<String, PoolStats> entry : HttpConnectionPools.getStatistics().entrySet()) {
+            Map<String, Object> measureData = Map.of("Pool", entry.getKey());
+            PoolStats stats = entry.getValue();
+            output.addMeasure("HttpConnectionPool_Leased", stats.getLeased(), measureData);
+            output.addMeasure("HttpConnectionPool_Available", stats.getAvailable(), measureData);
+            output.addMeasure("HttpConnectionPool_Pending", stats.getPending(), measureData);
+            output.addMeasure("HttpConnectionPool_Max", stats.getMax(), measureData);
+            output.add("HttpConnectionPool_" + poolIndex++, entry.getKey() + ": " + stats);
+        }
+        addStatistics("HttpPatternCache", patternCache.getStatistics());
+        addStatistics("HttpJsonPathCache", JsonEvaluator.getStatistics());
+        addStatistics("HttpSSLContextCache", SSLContextFactory.getStatistics());
+    }
+
     @Keyword(description = "Keyword used to read the existing cookies")
     public void GetCookies() {
         HttpClient httpClient = getHttpClientFromSession();
@@ -25,8 +25,11 @@ import step.handlers.javahandler.KeywordRunner;
 import step.handlers.javahandler.KeywordRunner.ExecutionContext;
 
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 
+import java.io.StringReader;
+import java.net.InetAddress;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,6 +49,26 @@ public class HttpClientKeywordTest {
 		assertEquals(output.getPayload().getString("StatusCode"),"200");
 	}
 
+	@Test
+	public void httpRequestTimings() throws Exception {
+		String input = Json.createObjectBuilder().add("URL", "https://www.google.ch/")
+				.add("Name", "google")
+				.add("DetailedMeasures", true)
+				.build().toString();
+		Output<JsonObject> output = ctx.run("HttpRequest", input);
+		assertEquals(6, output.getMeasures().size());
+		Map<String, Object> data = output.getMeasures().get(0).getData();
+		assertEquals(false, data.get("ConnectionReused"));
+		assertTrue(((Number) data.get("BytesReceived")).longValue() > 0);
+		assertTrue(output.getMeasures().stream().anyMatch(m -> m.getName().equals("google_TLS")));
+
+		// the second request reuses the pooled connection
+		output = ctx.run("HttpRequest", input);
+		data = output.getMeasures().get(0).getData();
+		assertEquals(true, data.get("ConnectionReused"));
+		assertEquals(0L, ((Number) data.get("ConnectTime")).longValue());
+	}
+
 	@Test
 	public void hostNotFoundErrorHttpGetRequest() throws Exception {
 		String input = Json.createObjectBuilder().add("URL", "https://this.is.not.an.existing.host/").build().toString();
@@ -140,6 +163,89 @@ public class HttpClientKeywordTest {
 		ctx.run("CloseHttpClient", "{}");
 	}
 
+	@Test
+	public void simpleHttpGetRequestWithSharedConnectionPool() throws Exception {
+		String inputInitHttpClient = Json.createObjectBuilder()
+				.add("SharedConnectionPool", true)
+				.add("MaxTotal", 50)
+				.add("MaxPerRoute", 10)
+				.build().toString();
+		ctx.run("InitHttpClient", inputInitHttpClient);
+
+		String input = Json.createObjectBuilder().add("URL", "https://www.google.ch/").build().toString();
+		Output<JsonObject> output = ctx.run("HttpRequest", input);
+		assertEquals("200", output.getPayload().getString("StatusCode"));
+		ctx.run("CloseHttpClient", "{}");
+
+		// The pool survives the client and is reused by the next one having the same configuration
+		ctx.run("InitHttpClient", inputInitHttpClient);
+		output = ctx.run("HttpRequest", input);
+		assertEquals("200", output.getPayload().getString("StatusCode"));
+
+		output = ctx.run("GetHttpClientStatistics", "{}");
+		assertTrue(output.getPayload().getString("HttpConnectionPool_0").contains("maxTotal=50, maxPerRoute=10"));
+		assertTrue(output.getMeasures().stream().anyMatch(m -> m.getName().equals("HttpConnectionPool_Leased")));
+		// the SSL context of the first client has been reused by the second one
+		assertTrue(output.getPayload().getJsonNumber("HttpSSLContextCache_Hits").longValue() >= 1);
+		ctx.run("CloseHttpClient", "{}");
+	}
+
+	@Test
+	public void streamedHttpGetRequest() throws Exception {
+		ctx.setThrowExceptionOnError(false);
+		try {
+			JsonObject checks = Json.createObjectBuilder().add("TitleCheck", "</html>").build();
+			String input = Json.createObjectBuilder().add("URL", "https://www.google.ch/")
+					.add("StreamResponse", true)
+					.add("MaxInMemoryResponseSize", 100)
+					.add("Checks", checks)
+					.build().toString();
+			Output<JsonObject> output = ctx.run("HttpRequest", input);
+			assertNull(output.getError());
+			assertEquals("200", output.getPayload().getString("StatusCode"));
+			assertTrue(output.getPayload().getJsonNumber("ResponseSize").longValue() > 100);
+			assertTrue(output.getPayload().getString("Response").length() <= 100);
+			assertTrue(output.getPayload().containsKey("technicalWarning"));
+		} finally {
+			ctx.setThrowExceptionOnError(true);
+		}
+	}
+
+	@Test
+	public void httpRequestBatch() throws Exception {
+		String requests = Json.createArrayBuilder()
+				.add(Json.createObjectBuilder().add("URL", "https://www.google.ch/").add("Name", "google"))
+				.add(Json.createObjectBuilder().add("URL", "https://postman-echo.com/get?foo1=bar1").add("Name", "echo")
+						.add("Headers", Json.createObjectBuilder().add("accept", "application/json")))
+				.build().toString();
+		String input = Json.createObjectBuilder().add("Requests", requests).add("Parallelism", 2).build().toString();
+		Output<JsonObject> output = ctx.run("HttpRequestBatch", input);
+		assertNull(output.getError());
+		JsonArray results = Json.createReader(new StringReader(output.getPayload().getString("Results"))).readArray();
+		assertEquals(2, results.size());
+		assertEquals("google", results.getJsonObject(0).getString("Name"));
+		assertEquals("200", results.getJsonObject(0).getString("StatusCode"));
+		assertEquals("200", results.getJsonObject(1).getString("StatusCode"));
+		assertTrue(output.getMeasures().stream().anyMatch(m -> m.getName().equals("echo")));
+	}
+
+	@Test
+	public void httpRequestBatchInvalidRequests() throws Exception {
+		String requests = Json.createArrayBuilder()
+				.add(Json.createObjectBuilder().add("URL", "https://www.google.ch/"))
+				.add(Json.createObjectBuilder().add("Name", "noUrl"))
+				.build().toString();
+		String input = Json.createObjectBuilder().add("Requests", requests).build().toString();
+		ctx.setThrowExceptionOnError(false);
+		try {
+			Output<JsonObject> output = ctx.run("HttpRequestBatch", input);
+			assertEquals(ErrorType.BUSINESS, output.getError().getType());
+			assertTrue(output.getError().getMsg().endsWith("The request 1 has no URL"));
+		} finally {
+			ctx.setThrowExceptionOnError(true);
+		}
+	}
+
 	@Test
 	public void checkAndEtractErrors() throws Exception {
 		ctx.setThrowExceptionOnError(false);
@@ -208,6 +314,20 @@ public class HttpClientKeywordTest {
 		assertTrue(output.getPayload().getString("Response").contains("My content"));
 	}
 	
+	@Test
+	public void httpPostDataFile() throws Exception {
+		String input = Json.createObjectBuilder().add("URL", "https://postman-echo.com/post")
+			.add("Method", "POST")
+			.add("DataFile", Paths.get(this.getClass().getResource("/test.txt").toURI()).toString())
+			.add("DataContentType", "text/plain")
+			.build().toString();
+		Output<JsonObject> output = ctx.run("HttpRequest", input);
+
+		assertEquals("200", output.getPayload().getString("StatusCode"));
+		assertTrue(output.getPayload().getString("Response").contains("This is a test"));
+		assertEquals(14L, ((Number) output.getMeasures().get(0).getData().get("RequestSize")).longValue());
+	}
+
 	@Test
 	public void httpPostFormData() throws Exception {
 		JsonObject formData = Json.createObjectBuilder().add("myFormInput1", "My form value 1").build();
@@ -249,6 +369,12 @@ public class HttpClientKeywordTest {
 		assertEquals(123L, output.getPayload().getInt("myLong"));
 		assertEquals("some value", output.getPayload().getString("myString"));
 		assertTrue(output.getPayload().getBoolean("myBoolean"));
+
+		// the compiled json paths are reused by the next requests
+		output = ctx.run("HttpRequest", input);
+		assertEquals("some value", output.getPayload().getString("myString"));
+		output = ctx.run("GetHttpClientStatistics", "{}");
+		assertTrue(output.getPayload().getJsonNumber("HttpJsonPathCache_Hits").longValue() >= 4);
 	}
 
 	@Test
@@ -347,6 +473,26 @@ public class HttpClientKeywordTest {
         assertTrue(actual.getMessage().startsWith("Connect to mycustomhost.ch:443 [/0.0.0.0] failed: Connection refused"));
 	}
 
+	@Test
+	public void customDnsResolverWithMultipleIPs() throws Exception {
+		String targetIP = InetAddress.getByName("www.google.ch").getHostAddress();
+		String input = Json.createObjectBuilder()
+				.add("CustomDnsResolverTargetIP", "0.0.0.0, " + targetIP)
+				.add("CustomDnsResolverHostWithCustomDns", "www.google.ch")
+				.add("CustomDnsResolverPolicy", "RoundRobin")
+				.add("DnsCacheTtlMs", 60000)
+				.build().toString();
+		ctx.run("InitHttpClient", input);
+
+		// the first connection goes to 0.0.0.0 and fails, the next one is sent to the other IP
+		String requestInput = Json.createObjectBuilder().add("URL", "https://www.google.ch/").build().toString();
+		assertThrows(Exception.class, () -> ctx.run("HttpRequest", requestInput));
+		Output<JsonObject> output = ctx.run("HttpRequest", requestInput);
+		assertEquals("200", output.getPayload().getString("StatusCode"));
+		assertEquals(targetIP, output.getMeasures().get(0).getData().get("DestIP"));
+		ctx.run("CloseHttpClient", "{}");
+	}
+
 	@Test
 	public void initHttpClientWithCertificateTest() throws Exception {
 		HashMap<String, String> properties = new HashMap<>();
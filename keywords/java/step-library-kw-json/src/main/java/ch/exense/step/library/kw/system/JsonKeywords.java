@@ -16,44 +16,68 @@
 package ch.exense.step.library.kw.system;
 
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
+import ch.exense.step.library.commons.AtomicFileWriter;
+import ch.exense.step.library.commons.BatchValidator;
 import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.FileDocumentCache;
+import ch.exense.step.library.commons.JsonEvaluator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.*;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.Keyword;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class JsonKeywords extends AbstractEnhancedKeyword {
 
     private static final String FILE_OPT = "File";
     private static final String JSON_OPT = "Json";
+    private static final String STREAMING_OPT = "Streaming";
+    private static final String CACHE_OPT = "UseCache";
 
     private static final Configuration conf = Configuration.defaultConfiguration().setOptions(Option.ALWAYS_RETURN_LIST);
 
-    private final List<String> listOptionsExtract = Arrays.asList(FILE_OPT, JSON_OPT);
+    private static final long DOCUMENT_CACHE_MAX_HEAP_BYTES = 256L * 1024 * 1024;
+    // Estimated heap size of the parsed maps, lists and boxed values per byte of json
+    private static final int DOCUMENT_HEAP_BYTES_PER_FILE_BYTE = 8;
+    // The documents parsed from files are shared by all sessions of the agent and must not be modified
+    private static final FileDocumentCache<Object> documentCache = new FileDocumentCache<>(DOCUMENT_CACHE_MAX_HEAP_BYTES,
+            DOCUMENT_HEAP_BYTES_PER_FILE_BYTE);
+
+    private final List<String> listOptionsExtract = Arrays.asList(FILE_OPT, JSON_OPT, STREAMING_OPT, CACHE_OPT);
+
+    private static final String FILES_OPT = "Files";
+    private static final String PARALLELISM_OPT = "Parallelism";
+    private final List<String> listOptionsBatch = Arrays.asList(FILES_OPT, PARALLELISM_OPT);
+
+    private File getFile(String fileName, boolean writable) {
+        File file = new File(fileName);
+
+        if (!file.exists()) {
+            output.setBusinessError("File \"" + fileName + "\" do not exist.");
+            return null;
+        }
+        if (!file.canRead()) {
+            output.setBusinessError("File \"" + fileName + "\" is not readable.");
+            return null;
+        }
+        if (writable && !file.canWrite()) {
+            output.setBusinessError("File \"" + fileName + "\" is not writable.");
+            return null;
+        }
+        return file;
+    }
 
     private Object getJson(boolean writable) {
         String fileName = input.getString(FILE_OPT, "");
         File file = null;
         String jsonContent = null;
         if (!fileName.isEmpty()) {
-
-            file = new File(fileName);
-
-            if (!file.exists()) {
-                output.setBusinessError("File \"" + fileName + "\" do not exist.");
-                return null;
-            }
-            if (!file.canRead()) {
-                output.setBusinessError("File \"" + fileName + "\" is not readable.");
-                return null;
-            }
-            if (writable && !file.canWrite()) {
-                output.setBusinessError("File \"" + fileName + "\" is not writable.");
+            file = getFile(fileName, writable);
+            if (file == null) {
                 return null;
             }
         } else {
@@ -63,28 +87,61 @@ public class JsonKeywords extends AbstractEnhancedKeyword {
             }
         }
 
-        if (file != null) {
-            try {
-                jsonContent =  new String(Files.readAllBytes(file.toPath()));
-            } catch (IOException io) {
-                output.setError("IOException when trying to parse the file: " + io.getMessage(), io);
-                return null;
-            } catch (OutOfMemoryError oom) {
-                output.setError("OutOfMemoryError when trying to parse the file. The file is too big: " + oom.getMessage(), oom);
-                return null;
-            }
-        }
         try {
-            return Configuration.defaultConfiguration().jsonProvider().parse(jsonContent);
+            if (file == null) {
+                return parse(jsonContent);
+            } else if (input.getBoolean(CACHE_OPT, false)) {
+                Object json = documentCache.get(file, JsonKeywords::parse);
+                // copy on write, the cached document is shared
+                return writable ? copy(json, conf.jsonProvider()) : json;
+            } else {
+                return parse(file);
+            }
+        } catch (IOException io) {
+            output.setError("IOException when trying to parse the file: " + io.getMessage(), io);
+            return null;
+        } catch (OutOfMemoryError oom) {
+            output.setError("OutOfMemoryError when trying to parse the file. The file is too big: " + oom.getMessage(), oom);
+            return null;
         } catch (InvalidJsonException e) {
             output.setError("InvalidJsonException when trying to parse the file: " + e.getMessage(), e);
             return null;
         }
     }
 
+    private static Object parse(File file) throws IOException {
+        return parse(new String(Files.readAllBytes(file.toPath())));
+    }
+
+    private static Object parse(String jsonContent) {
+        return Configuration.defaultConfiguration().jsonProvider().parse(jsonContent);
+    }
+
+    private static Object copy(Object json, JsonProvider provider) {
+        if (provider.isMap(json)) {
+            Object copy = provider.createMap();
+            for (String key : provider.getPropertyKeys(json)) {
+                provider.setProperty(copy, key, copy(provider.getMapValue(json, key), provider));
+            }
+            return copy;
+        } else if (provider.isArray(json)) {
+            Object copy = provider.createArray();
+            int index = 0;
+            for (Object item : provider.toIterable(json)) {
+                provider.setArrayIndex(copy, index++, copy(item, provider));
+            }
+            return copy;
+        } else {
+            // strings, numbers and booleans are immutable
+            return json;
+        }
+    }
+
     @Keyword(schema = "{\"properties\":{" +
             "\""+FILE_OPT + "\":{\"type\":\"string\"}," +
-            "\""+JSON_OPT + "\":{\"type\":\"string\"}" +
+            "\""+JSON_OPT + "\":{\"type\":\"string\"}," +
+            "\""+STREAMING_OPT + "\":{\"type\":\"boolean\"}," +
+            "\""+CACHE_OPT + "\":{\"type\":\"boolean\"}" +
             "},\"oneOf\": [{\"required\":[\"" + FILE_OPT + "\"]}," +
             "            {\"required\":[\"" + JSON_OPT + "\"]}]" +
             "}",
@@ -96,12 +153,25 @@ public class JsonKeywords extends AbstractEnhancedKeyword {
      * It will then evaluate any other input parameters as a set of output name and JsonPath to extract the text content.
      * If the JsonPath leads to multiple values, they are returned in a json object "[{"a":1},{"a":5}]"
      *
+     * With the "Streaming" input, the json is read as a token stream and all paths are evaluated in one pass,
+     * keeping only the matched values in memory. This allows extracting values from files bigger than the
+     * available memory, but only supports child accesses by name or index and wildcards, ex: $.store.book[*].author
+     *
+     * If the "UseCache" input is true (false by default), the documents parsed from files are cached agent wide until
+     * the file is modified and shared by the sessions without locking, as the paths only read them.
+     *
      * @See <a href="https://github.com/json-path/JsonPath"/>
      */
     public void Extract_Json() throws Exception {
+        if (input.getBoolean(STREAMING_OPT, false)) {
+            extractJsonStreaming();
+            return;
+        }
         Object json = getJson(false);
         if (json == null) return;
 
+        // all paths are evaluated on the same parsed document
+        JsonEvaluator evaluator = new JsonEvaluator(json, conf);
         for (String jsonPathKey : input.keySet().stream()
                 .filter(key -> !listOptionsExtract.contains(key))
                 .toArray(String[]::new)) {
@@ -109,24 +179,54 @@ public class JsonKeywords extends AbstractEnhancedKeyword {
             List<Object> list;
             String path = input.getString(jsonPathKey);
             try {
-                list = JsonPath.using(conf).parse(json).read(path);
+                list = evaluator.read(path);
             } catch (InvalidPathException e) {
                 output.setError("Invalid jsonPath '" + path + "': " + e.getMessage(), e);
                 return;
             }
 
-            output.add(jsonPathKey, "["+list.stream().map(obj -> {
-            try {
-                return new ObjectMapper().writeValueAsString(obj);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
-            }
-            }).collect(Collectors.joining(","))+"]");
+            output.add(jsonPathKey, JsonEvaluator.toJsonList(list));
         }
     }
 
 
-    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+JSON_OPT+"\":{\"type\":\"string\"}},\n" +
+    private void extractJsonStreaming() throws IOException {
+        Map<String, String> paths = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsExtract.contains(key))
+                .forEach(key -> paths.put(key, input.getString(key)));
+
+        StreamingJsonExtractor extractor;
+        try {
+            extractor = new StreamingJsonExtractor(paths);
+        } catch (IllegalArgumentException e) {
+            output.setBusinessError(e.getMessage());
+            return;
+        }
+
+        String fileName = input.getString(FILE_OPT, "");
+        Map<String, List<String>> results;
+        try {
+            if (!fileName.isEmpty()) {
+                File file = getFile(fileName, false);
+                if (file == null) return;
+                results = extractor.extract(file);
+            } else {
+                String jsonContent = input.getString(JSON_OPT, "");
+                if (jsonContent.isEmpty()) {
+                    throw new BusinessException("One of the input parameter '" + FILE_OPT + "' or '" + JSON_OPT + "' should exist");
+                }
+                results = extractor.extract(jsonContent);
+            }
+        } catch (JsonProcessingException e) {
+            output.setError("JsonProcessingException when trying to parse the json: " + e.getMessage(), e);
+            return;
+        }
+        results.forEach((key, values) -> output.add(key, "[" + String.join(",", values) + "]"));
+    }
+
+    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+JSON_OPT+"\":{\"type\":\"string\"}," +
+            "\""+CACHE_OPT+"\":{\"type\":\"boolean\"},\""+STREAMING_OPT+"\":{\"type\":\"boolean\"}},\n" +
             "\"oneOf\": [{\"required\":[\""+FILE_OPT+"\"]}," +
             "            {\"required\":[\""+JSON_OPT+"\"]}]" +
             "}",
@@ -137,31 +237,29 @@ public class JsonKeywords extends AbstractEnhancedKeyword {
      * This keyword can read json from a file (using the "File" input) or directly from the "Json" input.
      * It will then evaluate any other input parameters as a set of jsonPath and value to be replaced.
      * Note that the jsonPath should return only one node
+     * If the input Streaming is set to true, a file is rewritten in one streaming pass without loading the whole document,
+     * the new content being written to a temporary file which then replaces the file. Only child accesses by name or
+     * index and wildcards are supported in this mode, and each jsonPath must match at least one value.
      *
      * @See <a href="https://github.com/json-path/JsonPath"/>
      */
     public void Replace_Json() throws Exception {
+        if (input.getBoolean(STREAMING_OPT, false) && !input.getString(FILE_OPT, "").isEmpty()) {
+            replaceJsonStreaming();
+            return;
+        }
         Object json = getJson(true);
         if (json == null) return;
 
-        DocumentContext context = JsonPath.using(conf).parse(json);
+        JsonEvaluator evaluator = new JsonEvaluator(json, conf);
 
         for (String jsonPath : input.keySet().stream()
                 .filter(key -> !listOptionsExtract.contains(key))
                 .toArray(String[]::new)) {
 
-            Object value;
-            try {
-                value = input.getString(jsonPath);
-            } catch (ClassCastException e) {
-                try {
-                    value = input.getInt(jsonPath);
-                } catch (ClassCastException e2) {
-                    value = input.getBoolean(jsonPath);
-                }
-            }
+            Object value = getReplacementValue(jsonPath);
             try {
-                context = context.set(jsonPath,value);
+                evaluator.set(jsonPath, value);
             } catch (InvalidPathException e) {
                 output.setError("Invalid jsonPath '" + jsonPath + "': " + e.getMessage(), e);
                 return;
@@ -169,11 +267,140 @@ public class JsonKeywords extends AbstractEnhancedKeyword {
         }
         String fileName=input.getString("File","");
         if (fileName.isEmpty()) {
-            output.add("Transformed",context.jsonString());
+            output.add("Transformed",evaluator.jsonString());
         } else {
             try (BufferedWriter br = new BufferedWriter(new FileWriter(fileName))) {
-                br.write(context.jsonString());
+                br.write(evaluator.jsonString());
+            }
+            documentCache.invalidate(new File(fileName));
+        }
+    }
+
+    private Object getReplacementValue(String jsonPath) {
+        try {
+            return input.getString(jsonPath);
+        } catch (ClassCastException e) {
+            try {
+                return input.getInt(jsonPath);
+            } catch (ClassCastException e2) {
+                return input.getBoolean(jsonPath);
             }
         }
     }
+
+    private void replaceJsonStreaming() throws Exception {
+        File file = getFile(input.getString(FILE_OPT), true);
+        if (file == null) return;
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsExtract.contains(key))
+                .forEach(key -> values.put(key, getReplacementValue(key)));
+
+        StreamingJsonReplacer replacer;
+        try {
+            replacer = new StreamingJsonReplacer(values);
+        } catch (IllegalArgumentException e) {
+            output.setBusinessError(e.getMessage());
+            return;
+        }
+        try {
+            AtomicFileWriter.replace(file, temporaryFile -> {
+                for (Map.Entry<String, Integer> count : replacer.replace(file, temporaryFile).entrySet()) {
+                    if (count.getValue() == 0) {
+                        output.setBusinessError("JsonPath '" + count.getKey() + "' not found in the document");
+                        return false;
+                    }
+                }
+                return true;
+            });
+        } catch (JsonProcessingException e) {
+            output.setError("JsonProcessingException when trying to parse the json: " + e.getMessage(), e);
+            return;
+        }
+        documentCache.invalidate(file);
+    }
+
+    /**
+     * Extract json paths from many json files in parallel and compare them with expected values.
+     *
+     * The "Files" input is either a folder, all its files being validated, or a glob pattern, ex: /data/responses/**&#47;*.json
+     * Any other input parameter is a rule: a json path and the expected value, using the format of the Validate_XML keyword,
+     * ex: "$.orders[*].status": "[open*]". String values are compared as is, other values as json.
+     * All rules are evaluated on all files, each file being parsed once by one of at most "Parallelism" threads
+     * (by default the number of processors) of an agent wide pool having one thread per processor. The files are not cached.
+     * The number of files passing and failing the validation are reported as Files_* outputs and measures, the number
+     * of files passing and failing each rule as the "Rules" json output. If any rule fails, the keyword fails with a
+     * business error and the failures are attached.
+     */
+    @Keyword(schema = "{\"properties\":{\""+FILES_OPT+"\":{\"type\":\"string\"},\""+PARALLELISM_OPT+"\":{\"type\":\"integer\"}}," +
+            "\"required\":[\""+FILES_OPT+"\"]}",
+            description = "Extract json paths from many json files in parallel and compare them with expected values.")
+    public void Extract_Json_Batch() throws Exception {
+        Map<String, String> rules = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsBatch.contains(key))
+                .forEach(key -> rules.put(key, input.getString(key)));
+
+        // invalid paths are reported once rather than for each file
+        for (String path : rules.keySet()) {
+            try {
+                JsonEvaluator.compile(path);
+            } catch (InvalidPathException e) {
+                output.setError("Invalid jsonPath '" + path + "': " + e.getMessage(), e);
+                return;
+            }
+        }
+
+        String filesInput = input.getString(FILES_OPT);
+        List<File> files = BatchValidator.listFiles(filesInput);
+        if (files.isEmpty()) {
+            output.setBusinessError("No file found matching \"" + filesInput + "\"");
+            return;
+        }
+
+        int parallelism = input.getInt(PARALLELISM_OPT, Runtime.getRuntime().availableProcessors());
+        if (parallelism < 1) {
+            output.setBusinessError("The '" + PARALLELISM_OPT + "' input must be greater than 0");
+            return;
+        }
+        BatchValidator.Result result = new BatchValidator("json path", rules, parallelism).validate(files, file -> {
+            JsonEvaluator evaluator = new JsonEvaluator(parse(file), conf);
+            Map<String, List<String>> values = new HashMap<>();
+            for (String path : rules.keySet()) {
+                List<Object> list;
+                try {
+                    list = evaluator.read(path);
+                } catch (PathNotFoundException e) {
+                    // compared as not found, which is expected by the !.* rules
+                    list = Collections.emptyList();
+                }
+                List<String> pathValues = new ArrayList<>(list.size());
+                for (Object value : list) {
+                    pathValues.add(value instanceof String ? (String) value : JsonEvaluator.toJson(value));
+                }
+                values.put(path, pathValues);
+            }
+            return values;
+        });
+
+        addStatistics("Files", result.getFileStatistics());
+        output.add("Rules", result.getRuleStatisticsAsJson());
+        if (!result.isPassed()) {
+            output.addAttachment(AttachmentHelper.generateAttachmentFromByteArray(result.getFailuresReport(),
+                    BatchValidator.FAILURES_ATTACHMENT));
+            output.setBusinessError(result.getErrorMessage());
+        }
+    }
+
+    /**
+     * Report the hits, misses, evictions, size and weight of the agent wide caches of parsed json files
+     * and compiled json paths as JsonDocumentCache_* and JsonPathCache_* measures. The weight of the
+     * document cache is the estimated heap size in bytes of the documents
+     */
+    @Keyword(description = "Report the statistics of the json document and json path caches as measures")
+    public void Get_Json_Cache_Statistics() {
+        addStatistics("JsonDocumentCache", documentCache.getStatistics());
+        addStatistics("JsonPathCache", JsonEvaluator.getStatistics());
+    }
 }
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.JsonEvaluator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluate a set of json paths in a single pass over a json token stream
+ * <p>
+ * Only the values matched by the paths are materialized, the memory used is therefore
+ * bounded by the size of the matched values and not by the size of the document.
+ * The supported subset of the json path syntax is made of child accesses by name
+ * ({@code $.store.book}, {@code $['store']['book']}), by array index ({@code [0]})
+ * and wildcards ({@code .*}, {@code [*]}). Filters, deep scans, slices and functions
+ * require the whole document and are not supported.
+ */
+public class StreamingJsonExtractor {
+
+    private static final ObjectMapper mapper = JsonEvaluator.getObjectMapper();
+
+    private final Map<String, List<Segment>> paths = new LinkedHashMap<>();
+
+    /**
+     * @param paths the json paths to evaluate, keyed by output name
+     * @throws IllegalArgumentException if a path is not part of the supported subset
+     */
+    public StreamingJsonExtractor(Map<String, String> paths) {
+        paths.forEach((name, path) -> this.paths.put(name, parse(path)));
+    }
+
+    public Map<String, List<String>> extract(File file) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(file)) {
+            return extract(parser);
+        }
+    }
+
+    public Map<String, List<String>> extract(String json) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return extract(parser);
+        }
+    }
+
+    /**
+     * Read the whole token stream and collect the matched values
+     *
+     * @param parser the parser positioned before the first token of the document
+     * @return the values matched by each path in document order, serialized as json, keyed by output name
+     */
+    public Map<String, List<String>> extract(JsonParser parser) throws IOException {
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        List<Map.Entry<String, List<Segment>>> active = new ArrayList<>();
+        for (Map.Entry<String, List<Segment>> path : paths.entrySet()) {
+            results.put(path.getKey(), new ArrayList<>());
+            active.add(path);
+        }
+        if (parser.nextToken() != null) {
+            visit(parser, active, 0, results);
+        }
+        return results;
+    }
+
+    /**
+     * Visit the value the parser is positioned on, located at the given depth, and whose location
+     * is matched by the first 'depth' segments of the active paths
+     */
+    private void visit(JsonParser parser, List<Map.Entry<String, List<Segment>>> active, int depth,
+                       Map<String, List<String>> results) throws IOException {
+        boolean matched = false;
+        for (Map.Entry<String, List<Segment>> path : active) {
+            if (path.getValue().size() == depth) {
+                matched = true;
+                break;
+            }
+        }
+        if (matched) {
+            // the value is materialized once and the longer paths are evaluated on it
+            JsonNode node = mapper.readTree(parser);
+            for (Map.Entry<String, List<Segment>> path : active) {
+                List<String> values = results.get(path.getKey());
+                collect(node, path.getValue(), depth, values);
+            }
+            return;
+        }
+
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                parser.nextToken();
+                visitChild(parser, active, depth, fieldName, -1, results);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                visitChild(parser, active, depth, null, index++, results);
+            }
+        }
+    }
+
+    private void visitChild(JsonParser parser, List<Map.Entry<String, List<Segment>>> active, int depth,
+                            String fieldName, int index, Map<String, List<String>> results) throws IOException {
+        List<Map.Entry<String, List<Segment>>> childActive = new ArrayList<>();
+        for (Map.Entry<String, List<Segment>> path : active) {
+            if (path.getValue().get(depth).matches(fieldName, index)) {
+                childActive.add(path);
+            }
+        }
+        if (childActive.isEmpty()) {
+            parser.skipChildren();
+        } else {
+            visit(parser, childActive, depth + 1, results);
+        }
+    }
+
+    private static void collect(JsonNode node, List<Segment> segments, int depth, List<String> values) throws IOException {
+        if (depth == segments.size()) {
+            values.add(mapper.writeValueAsString(node));
+            return;
+        }
+        Segment segment = segments.get(depth);
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (segment.matches(field.getKey(), -1)) {
+                    collect(field.getValue(), segments, depth + 1, values);
+                }
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                if (segment.matches(null, i)) {
+                    collect(node.get(i), segments, depth + 1, values);
+                }
+            }
+        }
+    }
+
+    /**
+     * One step of a path: a field name, an array index or a wildcard
+     */
+    static class Segment {
+
+        private final String fieldName;
+        private final int index;
+
+        private Segment(String fieldName, int index) {
+            this.fieldName = fieldName;
+            this.index = index;
+        }
+
+        private boolean isWildcard() {
+            return fieldName == null && index < 0;
+        }
+
+        boolean matches(String name, int arrayIndex) {
+            if (isWildcard()) {
+                return true;
+            } else if (fieldName != null) {
+                return fieldName.equals(name);
+            } else {
+                return name == null && index == arrayIndex;
+            }
+        }
+    }
+
+    static List<Segment> parse(String path) {
+        String p = path.trim();
+        if (!p.startsWith("$")) {
+            throw unsupported(path);
+        }
+        List<Segment> segments = new ArrayList<>();
+        int i = 1;
+        while (i < p.length()) {
+            char c = p.charAt(i);
+            if (c == '.') {
+                if (i + 1 < p.length() && p.charAt(i + 1) == '.') {
+                    throw unsupported(path);
+                }
+                int end = i + 1;
+                while (end < p.length() && p.charAt(end) != '.' && p.charAt(end) != '[') {
+                    end++;
+                }
+                String name = p.substring(i + 1, end);
+                if (name.isEmpty()) {
+                    throw unsupported(path);
+                }
+                segments.add(name.equals("*") ? new Segment(null, -1) : new Segment(name, -1));
+                i = end;
+            } else if (c == '[') {
+                int end = p.indexOf(']', i);
+                if (end < 0) {
+                    throw unsupported(path);
+                }
+                String content = p.substring(i + 1, end).trim();
+                if (content.equals("*")) {
+                    segments.add(new Segment(null, -1));
+                } else if (content.length() >= 2 && (content.charAt(0) == '\'' || content.charAt(0) == '"')
+                        && content.charAt(content.length() - 1) == content.charAt(0)) {
+                    String name = content.substring(1, content.length() - 1);
+                    if (name.indexOf('\'') >= 0 || name.indexOf('"') >= 0) {
+                        // several names or escaped quotes
+                        throw unsupported(path);
+                    }
+                    segments.add(new Segment(name, -1));
+                } else if (content.matches("[0-9]+")) {
+                    segments.add(new Segment(null, Integer.parseInt(content)));
+                } else {
+                    throw unsupported(path);
+                }
+                i = end + 1;
+            } else {
+                throw unsupported(path);
+            }
+        }
+        return segments;
+    }
+
+    private static IllegalArgumentException unsupported(String path) {
+        return new IllegalArgumentException("The jsonPath '" + path + "' is not supported in streaming mode. Only " +
+                "child accesses by name or index and wildcards are supported, ex: $.store.book[*].author");
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.system;
+
+import ch.exense.step.library.commons.JsonEvaluator;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replace values of a json document while copying it token by token
+ * <p>
+ * Only the replaced values are materialized, the memory used is therefore independent of the
+ * size of the document. The paths are limited to the subset supported by {@link StreamingJsonExtractor}.
+ * Every value matched by a path is replaced, paths with wildcards possibly replacing several values.
+ */
+public class StreamingJsonReplacer {
+
+    private static final ObjectMapper mapper = JsonEvaluator.getObjectMapper();
+
+    private final List<String> paths = new ArrayList<>();
+    private final List<List<StreamingJsonExtractor.Segment>> segments = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+
+    /**
+     * @param values the new values (strings, numbers, booleans...), keyed by json path
+     * @throws IllegalArgumentException if a path is not part of the supported subset
+     */
+    public StreamingJsonReplacer(Map<String, Object> values) {
+        values.forEach((path, value) -> {
+            this.paths.add(path);
+            this.segments.add(StreamingJsonExtractor.parse(path));
+            this.values.add(value);
+        });
+    }
+
+    /**
+     * @return the number of values replaced by each path, keyed by path
+     */
+    public Map<String, Integer> replace(File source, File target) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(source);
+             JsonGenerator generator = mapper.getFactory().createGenerator(target, JsonEncoding.UTF8)) {
+            return replace(parser, generator);
+        }
+    }
+
+    public Map<String, Integer> replace(JsonParser parser, JsonGenerator generator) throws IOException {
+        int[] counts = new int[paths.size()];
+        List<Integer> active = new ArrayList<>();
+        for (int p = 0; p < paths.size(); p++) {
+            active.add(p);
+        }
+        if (parser.nextToken() != null) {
+            copy(parser, generator, active, 0, counts);
+        }
+        generator.flush();
+
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (int p = 0; p < paths.size(); p++) {
+            results.put(paths.get(p), counts[p]);
+        }
+        return results;
+    }
+
+    /**
+     * Copy the value the parser is positioned on, located at the given depth, and whose location
+     * is matched by the first 'depth' segments of the active paths
+     */
+    private void copy(JsonParser parser, JsonGenerator generator, List<Integer> active, int depth, int[] counts)
+            throws IOException {
+        for (int p : active) {
+            if (segments.get(p).size() == depth) {
+                // the first matching path provides the new value, the other ones are counted
+                for (int other : active) {
+                    if (segments.get(other).size() == depth) {
+                        counts[other]++;
+                    }
+                }
+                generator.writeObject(values.get(p));
+                parser.skipChildren();
+                return;
+            }
+        }
+
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                generator.writeFieldName(fieldName);
+                parser.nextToken();
+                copy(parser, generator, childPaths(active, depth, fieldName, -1), depth + 1, counts);
+            }
+            generator.writeEndObject();
+        } else if (token == JsonToken.START_ARRAY) {
+            generator.writeStartArray();
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                copy(parser, generator, childPaths(active, depth, null, index++), depth + 1, counts);
+            }
+            generator.writeEndArray();
+        } else {
+            // numbers are copied as written in the source document
+            generator.copyCurrentEventExact(parser);
+        }
+    }
+
+    private List<Integer> childPaths(List<Integer> active, int depth, String fieldName, int index) {
+        if (active.isEmpty()) {
+            return active;
+        }
+        List<Integer> childActive = new ArrayList<>();
+        for (int p : active) {
+            if (segments.get(p).get(depth).matches(fieldName, index)) {
+                childActive.add(p);
+            }
+        }
+        return childActive;
+    }
+}
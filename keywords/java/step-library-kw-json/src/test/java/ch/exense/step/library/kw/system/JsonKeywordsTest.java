@@ -25,6 +25,7 @@ import step.handlers.javahandler.KeywordRunner.ExecutionContext;
 import javax.json.Json;
 import javax.json.JsonObject;
 import java.io.File;
+import java.nio.file.Files;
 
 public class JsonKeywordsTest {
 
@@ -64,6 +65,134 @@ public class JsonKeywordsTest {
                 .equals("[\"Nigel Rees\"]");
     }
 
+    @Test
+    public void test_extract_values_streaming() throws Exception {
+        String path = new File(getClass().getClassLoader()
+                .getResource("test.json").getFile()).getAbsolutePath();
+        Output<JsonObject> output;
+        JsonObject input;
+
+        input = Json.createObjectBuilder().add("File", path)
+                .add("Streaming", true)
+                .add("author","$.store.book[*].author")
+                .add("firstAuthor","$.store.book[0].author")
+                .add("bicycle","$['store']['bicycle']")
+                .add("expensive","$.expensive")
+                .build();
+        output = ctx.run("Extract_Json", input.toString());
+        System.out.println(output.getPayload());
+        assert output.getError() == null;
+        assert output.getPayload().getString("author")
+                .equals("[\"Nigel Rees\",\"Evelyn Waugh\",\"Herman Melville\",\"J. R. R. Tolkien\"]");
+        assert output.getPayload().getString("firstAuthor")
+                .equals("[\"Nigel Rees\"]");
+        assert output.getPayload().getString("bicycle")
+                .equals("[{\"color\":\"red\",\"price\":19.95}]");
+        assert output.getPayload().getString("expensive")
+                .equals("[10]");
+
+        // filters require the whole document
+        input = Json.createObjectBuilder().add("File", path)
+                .add("Streaming", true)
+                .add("cheapBooks","$.store.book[?(@.price < 10)]")
+                .build();
+        output = ctx.run("Extract_Json", input.toString());
+        assert output.getError() != null;
+    }
+
+    @Test
+    public void test_document_cache() throws Exception {
+        File file = File.createTempFile("test", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "{\"bicycle\": {\"color\": \"red\"}}");
+        Output<JsonObject> output;
+        JsonObject input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("UseCache", true)
+                .add("color","$.bicycle.color")
+                .build();
+
+        output = ctx.run("Get_Json_Cache_Statistics", "{}");
+        long hits = output.getPayload().getJsonNumber("JsonDocumentCache_Hits").longValue();
+
+        ctx.run("Extract_Json", input.toString());
+        output = ctx.run("Extract_Json", input.toString());
+        assert output.getPayload().getString("color").equals("[\"red\"]");
+        output = ctx.run("Get_Json_Cache_Statistics", "{}");
+        assert output.getPayload().getJsonNumber("JsonDocumentCache_Hits").longValue() == hits + 1;
+
+        // the cached document is copied before being replaced, and the modified file is read again
+        output = ctx.run("Replace_Json", Json.createObjectBuilder().add("File", file.getAbsolutePath())
+                .add("$.bicycle.color","blue").build().toString());
+        assert output.getError() == null;
+        output = ctx.run("Extract_Json", input.toString());
+        assert output.getPayload().getString("color").equals("[\"blue\"]");
+
+        output = ctx.run("Extract_Json", Json.createObjectBuilder(input).add("UseCache", false).build().toString());
+        assert output.getPayload().getString("color").equals("[\"blue\"]");
+    }
+
+    @Test
+    public void test_replace_values_streaming() throws Exception {
+        File file = File.createTempFile("test", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "{\"bicycle\": {\"color\": \"red\", \"price\": 19.90, \"stolen\": true}," +
+                " \"tags\": [\"a\", \"b\"]}");
+        Output<JsonObject> output;
+        JsonObject input;
+
+        input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("Streaming", true)
+                .add("$['bicycle']['color']", "blue")
+                .add("$.bicycle.stolen", false)
+                .add("$.tags[*]", "c")
+                .build();
+        output = ctx.run("Replace_Json", input.toString());
+        assert output.getError() == null;
+        assert Files.readString(file.toPath())
+                .equals("{\"bicycle\":{\"color\":\"blue\",\"price\":19.90,\"stolen\":false},\"tags\":[\"c\",\"c\"]}");
+
+        // the file is left unchanged if a path is not found
+        input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("Streaming", true)
+                .add("$.bicycle.color", "green")
+                .add("$.bicycle.owner", "me")
+                .build();
+        output = ctx.run("Replace_Json", input.toString());
+        assert output.getError() != null;
+        assert Files.readString(file.toPath()).contains("blue");
+    }
+
+    @Test
+    public void test_extract_json_batch() throws Exception {
+        File folder = Files.createTempDirectory("batch").toFile();
+        folder.deleteOnExit();
+        for (int i = 1; i <= 3; i++) {
+            File file = new File(folder, "order" + i + ".json");
+            file.deleteOnExit();
+            Files.writeString(file.toPath(), "{\"id\": " + i + ", \"status\": \"" + (i < 3 ? "open" : "closed") + "\"," +
+                    " \"items\": [\"a\", \"b\"]}");
+        }
+        Output<JsonObject> output;
+        JsonObject input;
+
+        input = Json.createObjectBuilder().add("Files", folder.getAbsolutePath() + "/*.json")
+                .add("Parallelism", 2)
+                .add("$.items[*]", "[b,a]")
+                .add("$.items[0]", "a")
+                .add("$.missing", "!.*").build();
+        output = ctx.run("Extract_Json_Batch", input.toString());
+        assert output.getError() == null;
+        assert output.getPayload().getInt("Files_Passed") == 3;
+
+        input = Json.createObjectBuilder().add("Files", folder.getAbsolutePath())
+                .add("$.status", "open")
+                .add("$.id", ".*").build();
+        output = ctx.run("Extract_Json_Batch", input.toString());
+        assert output.getError() != null;
+        assert output.getPayload().getInt("Files_Total") == 3;
+        assert output.getPayload().getInt("Files_Failed") == 1;
+        assert output.getPayload().getString("Rules")
+                .equals("{\"$.status\":{\"Passed\":2,\"Failed\":1},\"$.id\":{\"Passed\":3,\"Failed\":0}}");
+        assert output.getAttachments().size() == 1;
+    }
+
     @Test
     public void test_replace_values() throws Exception {
 
@@ -17,6 +17,7 @@ package ch.exense.step.library.kw.ssl;
 
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
 import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.SSLContextFactory;
 import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.Keyword;
 
@@ -45,28 +46,19 @@ public class SSLKeywords extends AbstractEnhancedKeyword {
         int port = input.getInt("Port", 443);
         boolean all = input.getBoolean("ExtractAll", false);
 
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        X509TrustManager passThroughTrustManager = new X509TrustManager() {
-            @Override
-            public void checkClientTrusted(X509Certificate[] chain,
-                                           String authType) throws CertificateException {
-            }
-
-            @Override
-            public void checkServerTrusted(X509Certificate[] chain,
-                                           String authType) throws CertificateException {
-            }
-
-            @Override
-            public X509Certificate[] getAcceptedIssuers() {
-                return null;
-            }
-        };
-        sslContext.init(null, new TrustManager[]{passThroughTrustManager}, null);
+        // the context is shared to avoid its initialization, its sessions are however invalidated
+        // after each check: a resumed session would report the cached certificates of the host
+        SSLContext sslContext = SSLContextFactory.getSSLContext("TLS", null, null);
 
         try (SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(url, port)) {
 
-            Certificate[] listCert = socket.getSession().getPeerCertificates();
+            SSLSession session = socket.getSession();
+            Certificate[] listCert;
+            try {
+                listCert = session.getPeerCertificates();
+            } finally {
+                session.invalidate();
+            }
 
             if (listCert.length == 0) {
                 throw new BusinessException("No certificate(s) found for host '" + url + "' on port '" + port + "'");
@@ -0,0 +1,508 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.system;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluate a set of xpaths in a single StAX pass over an xml document
+ * <p>
+ * Only the text of the matched nodes is kept in memory, the memory used is therefore bounded
+ * by the size of the matched values and not by the size of the document. The supported subset
+ * of xpath is made of absolute paths whose steps are element names or *, separated by / or //
+ * for descendants, with optional attribute predicates ([@id] or [@id='value']), and optionally
+ * ending with an attribute (/@id) or text() step. Names with a namespace prefix are not supported.
+ * The xpaths out of this subset are returned by {@link #getUnsupported()} to be evaluated on a DOM.
+ * <p>
+ * The same xpaths can be used to rewrite a document in a single pass, replacing the content of the
+ * selected elements or the value of the selected attributes while the other events are copied as is.
+ */
+public class StreamingXPathEvaluator {
+
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+
+    static {
+        // the CDATA sections are distinct text nodes in the DOM
+        if (inputFactory.isPropertySupported(REPORT_CDATA)) {
+            inputFactory.setProperty(REPORT_CDATA, true);
+        }
+    }
+
+    // prefixed names require a namespace context and are evaluated on the DOM
+    private static final String NAME = "[A-Za-z_][\\w.\\-]*";
+    private static final Pattern STEP = Pattern.compile("(//?)(" + NAME + "|\\*)((?:\\[@" + NAME + "(?:\\s*=\\s*(?:'[^']*'|\"[^\"]*\"))?\\])*)");
+    private static final Pattern PREDICATE = Pattern.compile("\\[@(" + NAME + ")(?:\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\"))?\\]");
+    private static final Pattern ATTRIBUTE_PATH = Pattern.compile("(.*)/@(" + NAME + ")");
+    private static final String TEXT_STEP = "/text()";
+
+    private final Map<String, Path> paths = new LinkedHashMap<>();
+    private final Map<String, String> unsupported = new LinkedHashMap<>();
+
+    /**
+     * @param xpaths the xpaths to evaluate, keyed by name
+     */
+    public StreamingXPathEvaluator(Map<String, String> xpaths) {
+        xpaths.forEach((name, xpath) -> {
+            Path path = Path.parse(xpath.trim());
+            if (path != null) {
+                paths.put(name, path);
+            } else {
+                unsupported.put(name, xpath);
+            }
+        });
+    }
+
+    /**
+     * @return the xpaths which cannot be streamed, keyed by name
+     */
+    public Map<String, String> getUnsupported() {
+        return unsupported;
+    }
+
+    public Map<String, List<String>> evaluate(File file) throws IOException, XMLStreamException {
+        try (InputStream in = new FileInputStream(file)) {
+            return evaluate(inputFactory.createXMLStreamReader(in));
+        }
+    }
+
+    public Map<String, List<String>> evaluate(String xml) throws XMLStreamException {
+        try (Reader reader = new StringReader(xml)) {
+            return evaluate(inputFactory.createXMLStreamReader(reader));
+        } catch (IOException e) {
+            // not thrown by a StringReader
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read the whole document and collect the text content of the matched nodes
+     *
+     * @return the values matched by each supported xpath in document order, keyed by name
+     */
+    private Map<String, List<String>> evaluate(XMLStreamReader reader) throws XMLStreamException {
+        List<Path> pathList = new ArrayList<>(paths.values());
+        List<List<StringBuilder>> values = new ArrayList<>();
+        pathList.forEach(p -> values.add(new ArrayList<>()));
+
+        // the state of each open element, the first one being the document itself
+        List<ElementState> stack = new ArrayList<>();
+        stack.add(ElementState.document(pathList.size()));
+        // the text content of the matched elements not closed yet, and the depth of these elements
+        List<StringBuilder> contentCaptures = new ArrayList<>();
+        List<Integer> contentCaptureDepths = new ArrayList<>();
+        // the type of the first event of the current text, 0 if not in a text. Adjacent text and CDATA
+        // nodes form a single xpath text node, whose value is the one of the first DOM node
+        int textType = 0;
+        boolean firstTextNode = false;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT: {
+                        textType = 0;
+                        ElementState parent = stack.get(stack.size() - 1);
+                        String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+                        ElementState element = new ElementState(pathList.size());
+                        for (int p = 0; p < pathList.size(); p++) {
+                            Path path = pathList.get(p);
+                            if (!parent.advance(p, path, name, reader, element)) {
+                                continue;
+                            }
+                            // the element is selected by the path
+                            if (path.attribute != null) {
+                                String value = attributeValue(reader, path.attribute);
+                                if (value != null) {
+                                    values.get(p).add(new StringBuilder(value));
+                                }
+                            } else if (path.text) {
+                                element.textPaths.set(p);
+                            } else {
+                                StringBuilder capture = new StringBuilder();
+                                values.get(p).add(capture);
+                                contentCaptures.add(capture);
+                                contentCaptureDepths.add(stack.size());
+                            }
+                        }
+                        stack.add(element);
+                        break;
+                    }
+                    case XMLStreamConstants.END_ELEMENT: {
+                        textType = 0;
+                        stack.remove(stack.size() - 1);
+                        // the content of the elements closed is complete
+                        for (int i = contentCaptures.size() - 1; i >= 0 && contentCaptureDepths.get(i) == stack.size(); i--) {
+                            contentCaptures.remove(i);
+                            contentCaptureDepths.remove(i);
+                        }
+                        break;
+                    }
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.CDATA: {
+                        String text = reader.getText();
+                        contentCaptures.forEach(capture -> capture.append(text));
+                        ElementState current = stack.get(stack.size() - 1);
+                        boolean newTextNode = textType == 0;
+                        if (newTextNode) {
+                            textType = event;
+                            firstTextNode = true;
+                        } else if (event != textType) {
+                            firstTextNode = false;
+                        }
+                        for (int p = current.textPaths.nextSetBit(0); p >= 0; p = current.textPaths.nextSetBit(p + 1)) {
+                            List<StringBuilder> pathValues = values.get(p);
+                            if (newTextNode) {
+                                pathValues.add(new StringBuilder(text));
+                            } else if (firstTextNode) {
+                                // the parser may split the text of a node in several events
+                                pathValues.get(pathValues.size() - 1).append(text);
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        // comments and processing instructions split the text nodes
+                        textType = 0;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        int p = 0;
+        for (String name : paths.keySet()) {
+            List<String> pathValues = new ArrayList<>(values.get(p).size());
+            values.get(p++).forEach(value -> pathValues.add(value.toString()));
+            results.put(name, pathValues);
+        }
+        return results;
+    }
+
+    /**
+     * @return true if all xpaths are supported and none selects text nodes, which cannot be replaced
+     */
+    public boolean isReplaceSupported() {
+        return unsupported.isEmpty() && paths.values().stream().noneMatch(path -> path.text);
+    }
+
+    /**
+     * Copy the document, replacing the content of the elements and the value of the attributes
+     * selected by the xpaths. The descendants of a replaced element are still evaluated, so that all the
+     * nodes selected by an xpath are counted, but not written.
+     *
+     * @param values the new values, keyed by the names of the xpaths
+     * @return the number of nodes replaced for each xpath, keyed by name
+     */
+    public Map<String, Integer> replace(File source, File target, Map<String, String> values)
+            throws IOException, XMLStreamException {
+        if (!isReplaceSupported()) {
+            throw new IllegalStateException("Some xpaths cannot be replaced in streaming mode");
+        }
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new FileOutputStream(target)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            String encoding = reader.getEncoding() != null ? reader.getEncoding() : "UTF-8";
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, encoding);
+            try {
+                return replace(reader, writer, encoding, values);
+            } finally {
+                writer.close();
+                reader.close();
+            }
+        }
+    }
+
+    private Map<String, Integer> replace(XMLStreamReader reader, XMLStreamWriter writer, String encoding,
+                                         Map<String, String> values) throws XMLStreamException {
+        List<String> names = new ArrayList<>(paths.keySet());
+        List<Path> pathList = new ArrayList<>(paths.values());
+        int[] counts = new int[pathList.size()];
+
+        if (reader.getVersion() != null) {
+            // the declaration is only written if the source has one
+            writer.writeStartDocument(encoding, reader.getVersion());
+        }
+        List<ElementState> stack = new ArrayList<>();
+        stack.add(ElementState.document(pathList.size()));
+        // the depth of the element whose content is being replaced, -1 if the events are copied
+        int replacedDepth = -1;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (replacedDepth >= 0 && event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+                continue;
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    ElementState parent = stack.get(stack.size() - 1);
+                    String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+                    ElementState element = new ElementState(pathList.size());
+                    Map<String, String> attributeValues = new LinkedHashMap<>();
+                    String content = null;
+                    for (int p = 0; p < pathList.size(); p++) {
+                        Path path = pathList.get(p);
+                        if (!parent.advance(p, path, name, reader, element)) {
+                            continue;
+                        }
+                        if (path.attribute != null) {
+                            if (attributeValue(reader, path.attribute) != null) {
+                                counts[p]++;
+                                attributeValues.putIfAbsent(path.attribute, values.get(names.get(p)));
+                            }
+                        } else {
+                            counts[p]++;
+                            if (content == null) {
+                                content = values.get(names.get(p));
+                            }
+                        }
+                    }
+                    stack.add(element);
+                    if (replacedDepth < 0) {
+                        writeStartElement(reader, writer, attributeValues);
+                        if (content != null) {
+                            writer.writeCharacters(content);
+                            replacedDepth = stack.size();
+                        }
+                    }
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT:
+                    if (replacedDepth < 0 || stack.size() == replacedDepth) {
+                        writer.writeEndElement();
+                        replacedDepth = -1;
+                    }
+                    stack.remove(stack.size() - 1);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData() != null ? reader.getPIData() : "");
+                    break;
+                case XMLStreamConstants.DTD:
+                    writer.writeDTD(reader.getText());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    writer.writeEntityRef(reader.getLocalName());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeEndDocument();
+                    break;
+                default:
+            }
+        }
+        writer.flush();
+
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (int p = 0; p < names.size(); p++) {
+            results.put(names.get(p), counts[p]);
+        }
+        return results;
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer,
+                                          Map<String, String> attributeValues) throws XMLStreamException {
+        writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            if (prefix == null || prefix.isEmpty()) {
+                writer.writeDefaultNamespace(nullToEmpty(reader.getNamespaceURI(i)));
+            } else {
+                writer.writeNamespace(prefix, nullToEmpty(reader.getNamespaceURI(i)));
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String name = qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+            String value = attributeValues.getOrDefault(name, reader.getAttributeValue(i));
+            writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), nullToEmpty(reader.getAttributeNamespace(i)),
+                    reader.getAttributeLocalName(i), value);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static String attributeValue(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)).equals(name)) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The progress of the paths at one open element
+     */
+    private static class ElementState {
+
+        // for each path, the number of steps matched by the location of the element
+        private final BitSet[] reached;
+        // for each path, the descendant steps which can still match a descendant of the element
+        private final BitSet[] pending;
+        // the paths selecting the text nodes of the element
+        private final BitSet textPaths = new BitSet();
+
+        private ElementState(int pathCount) {
+            reached = new BitSet[pathCount];
+            pending = new BitSet[pathCount];
+            for (int i = 0; i < pathCount; i++) {
+                reached[i] = new BitSet();
+                pending[i] = new BitSet();
+            }
+        }
+
+        private static ElementState document(int pathCount) {
+            ElementState state = new ElementState(pathCount);
+            for (BitSet r : state.reached) {
+                r.set(0);
+            }
+            return state;
+        }
+
+        /**
+         * Compute the state of the path p at a child element of this element
+         *
+         * @return true if the child element is selected by all steps of the path
+         */
+        private boolean advance(int p, Path path, String name, XMLStreamReader reader, ElementState child) {
+            int stepCount = path.steps.size();
+            BitSet candidates = (BitSet) reached[p].clone();
+            candidates.or(pending[p]);
+            for (int k = candidates.nextSetBit(0); k >= 0 && k < stepCount; k = candidates.nextSetBit(k + 1)) {
+                Step step = path.steps.get(k);
+                if (step.descendant) {
+                    child.pending[p].set(k);
+                } else if (!reached[p].get(k)) {
+                    continue;
+                }
+                if (step.matches(name, reader)) {
+                    child.reached[p].set(k + 1);
+                }
+            }
+            return child.reached[p].get(stepCount);
+        }
+    }
+
+    private static class Step {
+
+        private final boolean descendant;
+        private final String name;
+        private final List<String[]> predicates;
+
+        private Step(boolean descendant, String name, List<String[]> predicates) {
+            this.descendant = descendant;
+            this.name = name;
+            this.predicates = predicates;
+        }
+
+        private boolean matches(String elementName, XMLStreamReader reader) {
+            if (!name.equals("*") && !name.equals(elementName)) {
+                return false;
+            }
+            for (String[] predicate : predicates) {
+                String value = attributeValue(reader, predicate[0]);
+                if (value == null || (predicate[1] != null && !predicate[1].equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Path {
+
+        private final List<Step> steps;
+        // the attribute selected by the last step, null if the path selects elements or text nodes
+        private final String attribute;
+        private final boolean text;
+
+        private Path(List<Step> steps, String attribute, boolean text) {
+            this.steps = steps;
+            this.attribute = attribute;
+            this.text = text;
+        }
+
+        /**
+         * @return the parsed path, null if the xpath is not part of the supported subset
+         */
+        private static Path parse(String xpath) {
+            String attribute = null;
+            boolean text = false;
+            String elementPath = xpath;
+            Matcher attributeMatcher = ATTRIBUTE_PATH.matcher(xpath);
+            if (attributeMatcher.matches() && !attributeMatcher.group(1).endsWith("/")) {
+                elementPath = attributeMatcher.group(1);
+                attribute = attributeMatcher.group(2);
+            } else if (xpath.endsWith(TEXT_STEP) && !xpath.endsWith("/" + TEXT_STEP)) {
+                elementPath = xpath.substring(0, xpath.length() - TEXT_STEP.length());
+                text = true;
+            }
+
+            List<Step> steps = new ArrayList<>();
+            Matcher stepMatcher = STEP.matcher(elementPath);
+            int position = 0;
+            while (position < elementPath.length()) {
+                if (!stepMatcher.find(position) || stepMatcher.start() != position) {
+                    return null;
+                }
+                List<String[]> predicates = new ArrayList<>();
+                Matcher predicateMatcher = PREDICATE.matcher(stepMatcher.group(3));
+                while (predicateMatcher.find()) {
+                    String value = predicateMatcher.group(2) != null ? predicateMatcher.group(2) : predicateMatcher.group(3);
+                    predicates.add(new String[]{predicateMatcher.group(1), value});
+                }
+                steps.add(new Step(stepMatcher.group(1).equals("//"), stepMatcher.group(2), predicates));
+                position = stepMatcher.end();
+            }
+            return steps.isEmpty() ? null : new Path(steps, attribute, text);
+        }
+    }
+}
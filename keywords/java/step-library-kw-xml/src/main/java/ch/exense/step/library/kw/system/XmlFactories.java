@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2021 exense GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package ch.exense.step.library.kw.system;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per thread instances of the JAXP factories, builders, transformers and compiled xpaths
+ * <p>
+ * Looking up a JAXP factory goes through the service loader, which dominates the cost of
+ * the keywords on small payloads. The builders, transformers and compiled expressions are
+ * not thread safe: they are kept per thread and reset before being reused.
+ */
+final class XmlFactories {
+
+    private static final int MAX_EXPRESSIONS_PER_THREAD = 256;
+
+    private static final ThreadLocal<XmlFactories> factories = ThreadLocal.withInitial(XmlFactories::new);
+
+    private final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    private final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    private final XPath xPath = XPathFactory.newInstance().newXPath();
+    private DocumentBuilder documentBuilder;
+    private Transformer transformer;
+
+    private final Map<String, XPathExpression> expressions =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+                    return size() > MAX_EXPRESSIONS_PER_THREAD;
+                }
+            };
+
+    private XmlFactories() {
+    }
+
+    /**
+     * @return the document builder of the current thread, reset to its initial configuration
+     */
+    static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+        XmlFactories current = factories.get();
+        if (current.documentBuilder == null) {
+            current.documentBuilder = current.documentBuilderFactory.newDocumentBuilder();
+        } else {
+            current.documentBuilder.reset();
+        }
+        return current.documentBuilder;
+    }
+
+    /**
+     * @return the identity transformer of the current thread, reset to its initial output properties
+     */
+    static Transformer transformer() throws TransformerConfigurationException {
+        XmlFactories current = factories.get();
+        if (current.transformer == null) {
+            current.transformer = current.transformerFactory.newTransformer();
+        } else {
+            current.transformer.reset();
+        }
+        return current.transformer;
+    }
+
+    /**
+     * @return the compiled xpath, cached for the current thread
+     */
+    static XPathExpression compile(String xpath) throws XPathExpressionException {
+        XmlFactories current = factories.get();
+        XPathExpression expression = current.expressions.get(xpath);
+        if (expression == null) {
+            expression = current.xPath.compile(xpath);
+            current.expressions.put(xpath, expression);
+        }
+        return expression;
+    }
+}
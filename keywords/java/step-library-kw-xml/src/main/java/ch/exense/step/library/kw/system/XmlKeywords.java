@@ -16,22 +16,26 @@
 package ch.exense.step.library.kw.system;
 
 import ch.exense.step.library.commons.AbstractEnhancedKeyword;
+import ch.exense.step.library.commons.AtomicFileWriter;
+import ch.exense.step.library.commons.BatchValidator;
 import ch.exense.step.library.commons.BusinessException;
+import ch.exense.step.library.commons.FileDocumentCache;
+import ch.exense.step.library.commons.ValueMatcher;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import step.grid.io.AttachmentHelper;
 import step.handlers.javahandler.AbstractKeyword;
 import step.handlers.javahandler.Keyword;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.*;
@@ -42,42 +46,76 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
 
     private static final String FILE_OPT = "File";
     private static final String XML_OPT = "Xml";
-    private final List<String> listOptionsExtract = Arrays.asList(FILE_OPT, XML_OPT);
+    private static final String CACHE_OPT = "UseCache";
+    private static final String STREAMING_OPT = "Streaming";
+    private final List<String> listOptionsExtract = Arrays.asList(FILE_OPT, XML_OPT, CACHE_OPT, STREAMING_OPT);
+
+    private static final String FILES_OPT = "Files";
+    private static final String PARALLELISM_OPT = "Parallelism";
+    private final List<String> listOptionsBatch = Arrays.asList(FILES_OPT, PARALLELISM_OPT);
+
+    private static final long DOCUMENT_CACHE_MAX_HEAP_BYTES = 256L * 1024 * 1024;
+    // Estimated heap size of a DOM tree per byte of xml: UTF-16 text plus the node objects
+    private static final int DOCUMENT_HEAP_BYTES_PER_FILE_BYTE = 10;
+    // The documents parsed from files are shared by all sessions of the agent and must not be modified
+    private static final FileDocumentCache<Document> documentCache = new FileDocumentCache<>(DOCUMENT_CACHE_MAX_HEAP_BYTES,
+            DOCUMENT_HEAP_BYTES_PER_FILE_BYTE);
+
+    private File getFile(String fileName, boolean writable) {
+        File file = new File(fileName);
+
+        if (!file.exists()) {
+            output.setBusinessError("File \"" + fileName + "\" do not exist.");
+            return null;
+        }
+        if (!file.canRead()) {
+            output.setBusinessError("File \"" + fileName + "\" is not readable.");
+            return null;
+        }
+        if (writable && !file.canWrite()) {
+            output.setBusinessError("File \"" + fileName + "\" is not writable.");
+            return null;
+        }
+        return file;
+    }
+
+    private String getXmlContent() {
+        String xmlContent = input.getString(XML_OPT, "");
+        if (xmlContent.isEmpty()) {
+            throw new BusinessException("One of the input parameter '"+FILE_OPT+"' or '"+XML_OPT+"' should exist");
+        }
+        return xmlContent;
+    }
 
     private Document getDocument(boolean writable) {
         String fileName = input.getString(FILE_OPT, "");
         File file = null;
         String xmlContent = null;
         if (!fileName.isEmpty()) {
-
-            file = new File(fileName);
-
-            if (!file.exists()) {
-                output.setBusinessError("File \"" + fileName + "\" do not exist.");
-                return null;
-            }
-            if (!file.canRead()) {
-                output.setBusinessError("File \"" + fileName + "\" is not readable.");
-                return null;
-            }
-            if (writable && !file.canWrite()) {
-                output.setBusinessError("File \"" + fileName + "\" is not writable.");
+            file = getFile(fileName, writable);
+            if (file == null) {
                 return null;
             }
         } else {
-            xmlContent = input.getString(XML_OPT, "");
-            if (xmlContent.isEmpty()) {
-                throw new BusinessException("One of the input parameter '"+FILE_OPT+"' or '"+XML_OPT+"' should exist");
-            }
+            xmlContent = getXmlContent();
         }
 
         Document doc = null;
         try {
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            if (file!=null) {
-                doc = builder.parse(file);
+            if (file == null) {
+                doc = newDocumentBuilder().parse(new InputSource(new StringReader(xmlContent)));
+            } else if (input.getBoolean(CACHE_OPT, false)) {
+                Document cached = documentCache.get(file, f -> newDocumentBuilder().parse(f));
+                if (writable) {
+                    // copy on write, the cached document is shared
+                    synchronized (cached) {
+                        doc = (Document) cached.cloneNode(true);
+                    }
+                } else {
+                    doc = cached;
+                }
             } else {
-                doc = builder.parse( new InputSource(new StringReader(xmlContent)));
+                doc = newDocumentBuilder().parse(file);
             }
         } catch (IOException | SAXException io) {
             output.setError("IOException when trying to parse the XML: " + io.getMessage(), io);
@@ -90,26 +128,95 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
         return doc;
     }
 
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        return XmlFactories.documentBuilder();
+    }
+
+    /**
+     * Evaluate the xpaths in one streaming pass over the document, the xpaths which cannot be
+     * streamed being evaluated on the DOM
+     *
+     * @param xpaths the xpaths, by name
+     * @return the text content of the nodes found by each xpath, by name. Null if an error occurred
+     */
+    private Map<String, List<String>> evaluateStreaming(Map<String, String> xpaths) throws Exception {
+        StreamingXPathEvaluator evaluator = new StreamingXPathEvaluator(xpaths);
+        Map<String, List<String>> results;
+        String fileName = input.getString(FILE_OPT, "");
+        try {
+            if (!fileName.isEmpty()) {
+                File file = getFile(fileName, false);
+                if (file == null) return null;
+                results = evaluator.evaluate(file);
+            } else {
+                results = evaluator.evaluate(getXmlContent());
+            }
+        } catch (XMLStreamException e) {
+            output.setError("XMLStreamException when trying to parse the XML: " + e.getMessage(), e);
+            return null;
+        }
+
+        Map<String, String> unsupported = evaluator.getUnsupported();
+        if (!unsupported.isEmpty()) {
+            Document doc = getDocument(false);
+            if (doc == null) return null;
+
+            synchronized (doc) {
+                for (Map.Entry<String, String> xpath : unsupported.entrySet()) {
+                    NodeList nodeList;
+                    try {
+                        nodeList = (NodeList) XmlFactories.compile(xpath.getValue()).evaluate(doc, XPathConstants.NODESET);
+                    } catch (XPathExpressionException expr) {
+                        output.setError("Invalid xpath found'" + xpath.getValue() + "': " + expr.getMessage(), expr);
+                        return null;
+                    }
+                    results.put(xpath.getKey(), getTextContents(nodeList));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static List<String> getTextContents(NodeList nodeList) {
+        List<String> values = new LinkedList<>();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            values.add(nodeList.item(i).getTextContent());
+        }
+        return values;
+    }
+
     /**
      * Replace the value of xml nodes given a list of xpaths.
      *
      * This keyword can read xml from a file (using the "File" input) or directly from the "Xml" input.
      * It will then evaluate any other input parameters as a set of xpath and value to be replaced.
      * Note that the xpaths should return only one node
+     * If the input Streaming is set to true, a file is rewritten in one streaming pass without building the DOM, the new
+     * content being written to a temporary file which then replaces the file. Only the xpaths supported by the streaming
+     * evaluation (see Extract_XML) and not ending with text() are streamed, the DOM is used otherwise
      */
-    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+XML_OPT+"\":{\"type\":\"string\"}},\n" +
+    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+XML_OPT+"\":{\"type\":\"string\"}," +
+            "\""+CACHE_OPT+"\":{\"type\":\"boolean\"},\""+STREAMING_OPT+"\":{\"type\":\"boolean\"}},\n" +
             "\"oneOf\": [{\"required\":[\""+FILE_OPT+"\"]}," +
             "            {\"required\":[\""+XML_OPT+"\"]}]" +
             "}",
             description = "Replace the value of xml nodes given a list of xpaths.")
     public void Replace_XML() throws Exception {
+        if (input.getBoolean(STREAMING_OPT, false) && !input.getString(FILE_OPT, "").isEmpty()) {
+            Map<String, String> xpaths = new LinkedHashMap<>();
+            input.keySet().stream()
+                    .filter(key -> !listOptionsExtract.contains(key))
+                    .forEach(key -> xpaths.put(key, key));
+            StreamingXPathEvaluator evaluator = new StreamingXPathEvaluator(xpaths);
+            if (evaluator.isReplaceSupported()) {
+                replaceXmlStreaming(evaluator, xpaths.keySet());
+                return;
+            }
+        }
 
         Document doc = getDocument(true);
         if (doc == null) return;
 
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        XPath xPath = xpathFactory.newXPath();
-
         for (String xpathString : input.keySet().stream().
                 filter(key -> !listOptionsExtract.contains(key)).
                 toArray(String[]::new)) {
@@ -117,7 +224,7 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
 
             NodeList nodeList;
             try {
-                XPathExpression expr = xPath.compile(xpathString);
+                XPathExpression expr = XmlFactories.compile(xpathString);
                 nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
             } catch (XPathExpressionException expr) {
                 output.setError("Invalid xpath found'" + xpathString + "': " + expr.getMessage(), expr);
@@ -133,7 +240,7 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
                 return;
             }
         }
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        Transformer transformer = XmlFactories.transformer();
         String fileName=input.getString("File","");
         if (fileName.isEmpty()) {
             StringWriter writer = new StringWriter();
@@ -141,9 +248,37 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
             output.add("Transformed",writer.getBuffer().toString());
         } else {
             transformer.transform(new DOMSource(doc), new StreamResult(new File(fileName)));
+            documentCache.invalidate(new File(fileName));
         }
     }
 
+    private void replaceXmlStreaming(StreamingXPathEvaluator evaluator, Set<String> xpaths) throws Exception {
+        File file = getFile(input.getString(FILE_OPT), true);
+        if (file == null) return;
+
+        Map<String, String> values = new HashMap<>();
+        xpaths.forEach(xpath -> values.put(xpath, input.getString(xpath)));
+        try {
+            AtomicFileWriter.replace(file, temporaryFile -> {
+                Map<String, Integer> counts = evaluator.replace(file, temporaryFile, values);
+                for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                    if (count.getValue() == 0) {
+                        output.setBusinessError("Xpath '" + count.getKey() + "' not found in the document");
+                        return false;
+                    } else if (count.getValue() > 1) {
+                        output.setBusinessError("Multiple xpath were found matching '" + count.getKey() + "'");
+                        return false;
+                    }
+                }
+                return true;
+            });
+        } catch (XMLStreamException e) {
+            output.setError("XMLStreamException when trying to parse the XML: " + e.getMessage(), e);
+            return;
+        }
+        documentCache.invalidate(file);
+    }
+
     /**
      * Extract the value given a list of xpaths.
      *
@@ -151,9 +286,16 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
      * It will then evaluate any other input parameters as a set of output name and xpath to extract the text content.
      * If the input ExtractXml is set to true (false by default), the exact sub-xml will be extracted
      * If the xpath leads to multiple values, they are returned in a list "[value1,value2]"
+     * If the input UseCache is set to true (false by default), the documents parsed from files are cached agent wide until
+     * the file is modified. The DOM not being thread safe even for reads, the sessions reading the same cached document
+     * are serialized: the cache saves the parsing of large files read now and then, not the reads of many concurrent sessions
+     * If the input Streaming is set to true, the xpaths are evaluated in one streaming pass without building the DOM.
+     * Only absolute and descendant paths with attribute predicates, ending with an attribute or text() are streamed,
+     * ex: //order[@status='open']/amount. The DOM is built for the other xpaths. Not supported with ExtractXml
      */
     @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+XML_OPT+"\":{\"type\":\"string\"}," +
-            "\"ExtractXml\":{\"type\":\"boolean\"}},\n" +
+            "\"ExtractXml\":{\"type\":\"boolean\"},\""+CACHE_OPT+"\":{\"type\":\"boolean\"}," +
+            "\""+STREAMING_OPT+"\":{\"type\":\"boolean\"}},\n" +
             "\"oneOf\": [{\"required\":[\""+FILE_OPT+"\"]}," +
             "            {\"required\":[\""+XML_OPT+"\"]}]" +
             "}",
@@ -162,46 +304,74 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
 
         boolean extractXML = input.getBoolean("ExtractXml",false);
 
+        if (input.getBoolean(STREAMING_OPT, false) && !extractXML) {
+            extractXmlStreaming();
+            return;
+        }
+
         Document doc = getDocument(false);
         if (doc == null) return;
 
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        XPath xPath = xpathFactory.newXPath();
+        // a cached document is shared by all sessions of the agent and the DOM is not thread safe, even for reads
+        synchronized (doc) {
+            for (String xpathKey : input.keySet().stream()
+                    .filter(key -> !listOptionsExtract.contains(key))
+                    .filter(key -> !"ExtractXml".equals(key))
+                    .toArray(String[]::new)) {
 
-        for (String xpathKey : input.keySet().stream()
-                .filter(key -> !listOptionsExtract.contains(key))
-                .filter(key -> !"ExtractXml".equals(key))
-                .toArray(String[]::new)) {
+                String xpathString = input.getString(xpathKey);
 
-            String xpathString = input.getString(xpathKey);
-
-            NodeList nodeList;
-            try {
-                XPathExpression expr = xPath.compile(xpathString);
-                nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
-            } catch (XPathExpressionException expr) {
-                output.setError("Invalid xpath found'" + xpathString + "': " + expr.getMessage(), expr);
-                return;
-            }
-            if (nodeList.getLength() == 0) {
-                output.setBusinessError("Xpath '" + xpathString + "' not found in the document");
-                return;
-            } else if (nodeList.getLength() == 1) {
-                if (extractXML) {
-                    output.add(xpathKey, nodeToString(nodeList.item(0)));
-                } else {
-                    output.add(xpathKey, nodeList.item(0).getTextContent());
+                NodeList nodeList;
+                try {
+                    XPathExpression expr = XmlFactories.compile(xpathString);
+                    nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+                } catch (XPathExpressionException expr) {
+                    output.setError("Invalid xpath found'" + xpathString + "': " + expr.getMessage(), expr);
+                    return;
                 }
-            } else {
-                List<String> actualValues = new LinkedList<>();
-                for (int i = 0; i < nodeList.getLength(); i++) {
+                if (nodeList.getLength() == 0) {
+                    output.setBusinessError("Xpath '" + xpathString + "' not found in the document");
+                    return;
+                } else if (nodeList.getLength() == 1) {
                     if (extractXML) {
-                        actualValues.add(nodeToString(nodeList.item(i)));
+                        output.add(xpathKey, nodeToString(nodeList.item(0)));
                     } else {
-                        actualValues.add(nodeList.item(i).getTextContent());
+                        output.add(xpathKey, nodeList.item(0).getTextContent());
+                    }
+                } else {
+                    List<String> actualValues = new LinkedList<>();
+                    for (int i = 0; i < nodeList.getLength(); i++) {
+                        if (extractXML) {
+                            actualValues.add(nodeToString(nodeList.item(i)));
+                        } else {
+                            actualValues.add(nodeList.item(i).getTextContent());
+                        }
                     }
+                    output.add(xpathKey, actualValues.toString());
                 }
-                output.add(xpathKey, actualValues.toString());
+            }
+        }
+    }
+
+    private void extractXmlStreaming() throws Exception {
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsExtract.contains(key))
+                .filter(key -> !"ExtractXml".equals(key))
+                .forEach(key -> xpaths.put(key, input.getString(key)));
+
+        Map<String, List<String>> results = evaluateStreaming(xpaths);
+        if (results == null) return;
+
+        for (Map.Entry<String, String> xpath : xpaths.entrySet()) {
+            List<String> values = results.get(xpath.getKey());
+            if (values.isEmpty()) {
+                output.setBusinessError("Xpath '" + xpath.getValue() + "' not found in the document");
+                return;
+            } else if (values.size() == 1) {
+                output.add(xpath.getKey(), values.get(0));
+            } else {
+                output.add(xpath.getKey(), values.toString());
             }
         }
     }
@@ -210,7 +380,7 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
             throws TransformerException
     {
         StringWriter buf = new StringWriter();
-        Transformer xform = TransformerFactory.newInstance().newTransformer();
+        Transformer xform = XmlFactories.transformer();
         xform.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
         xform.transform(new DOMSource(node), new StreamResult(buf));
         return(buf.toString().replaceAll("[\n\r]", ""));
@@ -230,104 +400,153 @@ public class XmlKeywords extends AbstractEnhancedKeyword {
      * - If the value is formatted as a list "[value1*]", the xpath should be found at least once and contains the same value
      * - If the value is formatted as a list "[value1,value2,...]", the xpath should be found at least X times
      * and contains at least once the given values
+     * If the input Streaming is set to true, the xpaths are evaluated in one streaming pass, see Extract_XML
+     * The input UseCache is applied as for Extract_XML, the sessions validating the same cached document being serialized
      */
-    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+XML_OPT+"\":{\"type\":\"string\"}},\n" +
+    @Keyword(schema = "{\"properties\":{\""+FILE_OPT+"\":{\"type\":\"string\"},\""+XML_OPT+"\":{\"type\":\"string\"}," +
+            "\""+CACHE_OPT+"\":{\"type\":\"boolean\"},\""+STREAMING_OPT+"\":{\"type\":\"boolean\"}},\n" +
             "\"oneOf\": [{\"required\":[\""+FILE_OPT+"\"]}," +
             "            {\"required\":[\""+XML_OPT+"\"]}]" +
             "}",
             description = "Validate the content of an XML file.")
     public void Validate_XML() throws Exception {
 
+        if (input.getBoolean(STREAMING_OPT, false)) {
+            validateXmlStreaming();
+            return;
+        }
+
         Document doc = getDocument(false);
         if (doc == null) return;
 
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        XPath xPath = xpathFactory.newXPath();
+        // a cached document is shared by all sessions of the agent and the DOM is not thread safe, even for reads
+        synchronized (doc) {
+            for (String xpathString : input.keySet().stream()
+                    .filter(key -> !listOptionsExtract.contains(key))
+                    .toArray(String[]::new)) {
+                String expected = input.getString(xpathString);
 
-        for (String xpathString : input.keySet().stream()
-                .filter(key -> !listOptionsExtract.contains(key))
-                .toArray(String[]::new)) {
-            String expected = input.getString(xpathString);
-
-            NodeList nodeList;
-            try {
-                XPathExpression expr = xPath.compile(xpathString);
-                nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
-            } catch (XPathExpressionException expr) {
-                output.setError("Invalid xpath found'" + xpathString + "': " + expr.getMessage(), expr);
-                return;
-            }
-            // case: test the absence of an node
-            if (expected.equals("!.*")) {
-                if (nodeList.getLength() > 0) {
-                    output.setBusinessError("Xpath '" + xpathString + "' was not expected to be found in the document");
+                NodeList nodeList;
+                try {
+                    XPathExpression expr = XmlFactories.compile(xpathString);
+                    nodeList = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+                } catch (XPathExpressionException expr) {
+                    output.setError("Invalid xpath found'" + xpathString + "': " + expr.getMessage(), expr);
+                    return;
+                }
+                if (!validate(xpathString, expected, getTextContents(nodeList))) {
+                    return;
                 }
-                return;
             }
-            // case: at least an node exist:
-            if (nodeList.getLength() == 0) {
-                output.setBusinessError("Xpath '" + xpathString + "' not found in the document");
+        }
+    }
+
+    private void validateXmlStreaming() throws Exception {
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsExtract.contains(key))
+                .forEach(key -> xpaths.put(key, key));
+
+        Map<String, List<String>> results = evaluateStreaming(xpaths);
+        if (results == null) return;
+
+        for (String xpathString : xpaths.keySet()) {
+            if (!validate(xpathString, input.getString(xpathString), results.get(xpathString))) {
                 return;
             }
+        }
+    }
+
+    /**
+     * Compare the text content of the nodes found by an xpath to the expected value
+     *
+     * @return true if the next xpaths are to be validated
+     */
+    private boolean validate(String xpathString, String expected, List<String> actualValues) {
+        String error = ValueMatcher.match("xpath", xpathString, expected, actualValues);
+        if (error != null) {
+            output.setBusinessError(error);
+            return false;
+        }
+        // testing the presence or the absence of a node ends the validation
+        return !ValueMatcher.isPresenceCheck(expected);
+    }
 
-            // case: testing the presence
-            if (expected.equals(".*")) {
+    /**
+     * Validate the content of many XML files in parallel.
+     *
+     * The "Files" input is either a folder, all its files being validated, or a glob pattern, ex: /data/responses/**&#47;*.xml
+     * Any other input parameter is a rule: an xpath and the expected value, using the format of Validate_XML.
+     * All rules are evaluated on all files, each file being parsed once by one of at most "Parallelism" threads
+     * (by default the number of processors) of an agent wide pool having one thread per processor. The xpaths are streamed when possible, see Extract_XML. The files are not cached.
+     * The number of files passing and failing the validation are reported as Files_* outputs and measures, the number
+     * of files passing and failing each rule as the "Rules" json output. If any rule fails, the keyword fails with a
+     * business error and the failures are attached.
+     */
+    @Keyword(schema = "{\"properties\":{\""+FILES_OPT+"\":{\"type\":\"string\"},\""+PARALLELISM_OPT+"\":{\"type\":\"integer\"}}," +
+            "\"required\":[\""+FILES_OPT+"\"]}",
+            description = "Validate the content of many XML files in parallel.")
+    public void Validate_XML_Batch() throws Exception {
+        Map<String, String> rules = new LinkedHashMap<>();
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        input.keySet().stream()
+                .filter(key -> !listOptionsBatch.contains(key))
+                .forEach(key -> {
+                    rules.put(key, input.getString(key));
+                    xpaths.put(key, key);
+                });
+
+        StreamingXPathEvaluator evaluator = new StreamingXPathEvaluator(xpaths);
+        Collection<String> domXpaths = evaluator.getUnsupported().values();
+        // invalid xpaths are reported once rather than for each file
+        for (String xpath : domXpaths) {
+            try {
+                XmlFactories.compile(xpath);
+            } catch (XPathExpressionException expr) {
+                output.setError("Invalid xpath found'" + xpath + "': " + expr.getMessage(), expr);
                 return;
             }
-            // case: list of values
-            else if (expected.startsWith("[") && expected.endsWith("]")) {
-                List<String> actualValues = new LinkedList<>();
-                for (int i = 0; i < nodeList.getLength(); i++) {
-                    actualValues.add(nodeList.item(i).getTextContent());
-                }
+        }
 
-                boolean exactCount = true;
-                List<String> expectedValues;
-                //only check the presence of the values given:
-                if (expected.endsWith(",...]")) {
-                    exactCount = false;
-                    expectedValues = Arrays.asList(expected.substring(1, expected.length() - ",...]".length()).split(","));
-                }
-                // Consider all values to be equals:
-                else if (expected.endsWith("*]") && !expected.contains(",")) {
-                    expectedValues = Collections.nCopies(nodeList.getLength(), expected.substring(1, expected.length() - "*]".length()));
-                }
-                // Otherwise split by ","
-                else {
-                    expectedValues = Arrays.asList(expected.substring(1, expected.length() - 1).split(","));
-                }
-                if (exactCount && expectedValues.size() != nodeList.getLength()) {
-                    output.setBusinessError("Error when comparing xpath '" + xpathString + "': "
-                            + expectedValues.size() + " values were expected, " + nodeList.getLength() + " were found.\n"
-                            + "Use the " + expected.substring(0, expected.length() - 1) + ",...] notation to only validate a subset of values"
-                            + " or the " + expected.substring(0, expected.length() - 1) + "*] notation to test that all values are expected to be the same");
-                    return;
-                }
-                String actualValuesString = actualValues.toString();
-                for (String value : expectedValues) {
-                    if (!actualValues.contains(value)) {
-                        output.setBusinessError("Error when comparing xpath '" + xpathString + "': "
-                                + "value '" + value + "' was not found. Expected was '" + expectedValues + "' and actual values were '" + actualValuesString + "'");
-                        return;
-                    }
-                    actualValues.remove(value);
-                }
-            }
-            // case: one value
-            else if (nodeList.getLength() == 1) {
-                String result = nodeList.item(0).getTextContent();
-                if (!result.equals(expected)) {
-                    output.setBusinessError("Error when comparing xpath '" + xpathString
-                            + "value was expected to be: '" + expected + "' but was '" + result + "'");
-                    return;
+        String filesInput = input.getString(FILES_OPT);
+        List<File> files = BatchValidator.listFiles(filesInput);
+        if (files.isEmpty()) {
+            output.setBusinessError("No file found matching \"" + filesInput + "\"");
+            return;
+        }
+
+        int parallelism = input.getInt(PARALLELISM_OPT, Runtime.getRuntime().availableProcessors());
+        if (parallelism < 1) {
+            output.setBusinessError("The '" + PARALLELISM_OPT + "' input must be greater than 0");
+            return;
+        }
+        BatchValidator.Result result = new BatchValidator("xpath", rules, parallelism).validate(files, file -> {
+            Map<String, List<String>> values = evaluator.evaluate(file);
+            if (!domXpaths.isEmpty()) {
+                Document doc = XmlFactories.documentBuilder().parse(file);
+                for (String xpath : domXpaths) {
+                    NodeList nodeList = (NodeList) XmlFactories.compile(xpath).evaluate(doc, XPathConstants.NODESET);
+                    values.put(xpath, getTextContents(nodeList));
                 }
-            } else {
-                output.setBusinessError("Error when comparing xpath '" + xpathString + "': "
-                        + "the xpath was supposed to be unique, but was found " + nodeList.getLength() + " times.\n"
-                        + "Use the [" + expected + ",...] notation to validate the presence of one value"
-                        + " or the [" + expected + "*] notation to test that all values are expected to be the same");
-                return;
             }
+            return values;
+        });
+
+        addStatistics("Files", result.getFileStatistics());
+        output.add("Rules", result.getRuleStatisticsAsJson());
+        if (!result.isPassed()) {
+            output.addAttachment(AttachmentHelper.generateAttachmentFromByteArray(result.getFailuresReport(),
+                    BatchValidator.FAILURES_ATTACHMENT));
+            output.setBusinessError(result.getErrorMessage());
         }
     }
+
+    /**
+     * Report the hits, misses, evictions, size and weight (estimated heap size in bytes) of the agent wide cache
+     * of parsed xml files as XmlDocumentCache_* measures
+     */
+    @Keyword(description = "Report the statistics of the xml document cache as measures")
+    public void Get_XML_Cache_Statistics() {
+        addStatistics("XmlDocumentCache", documentCache.getStatistics());
+    }
 }
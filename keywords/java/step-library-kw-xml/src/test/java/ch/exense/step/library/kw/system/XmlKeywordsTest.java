@@ -25,6 +25,7 @@ import step.handlers.javahandler.KeywordRunner.ExecutionContext;
 import javax.json.Json;
 import javax.json.JsonObject;
 import java.io.File;
+import java.nio.file.Files;
 
 public class XmlKeywordsTest {
 
@@ -186,6 +187,131 @@ public class XmlKeywordsTest {
         assert output.getError() == null;
     }
 
+    @Test
+    public void test_document_cache() throws Exception {
+        File file = File.createTempFile("test", ".xml");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "<root><value>cached</value></root>");
+        Output<JsonObject> output;
+        JsonObject input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("UseCache", true)
+                .add("value", "/root/value").build();
+
+        output = ctx.run("Get_XML_Cache_Statistics", "{}");
+        long hits = output.getPayload().getJsonNumber("XmlDocumentCache_Hits").longValue();
+
+        ctx.run("Extract_XML", input.toString());
+        output = ctx.run("Extract_XML", input.toString());
+        assert output.getPayload().getString("value").equals("cached");
+        output = ctx.run("Get_XML_Cache_Statistics", "{}");
+        assert output.getPayload().getJsonNumber("XmlDocumentCache_Hits").longValue() == hits + 1;
+
+        // a modified file is parsed again
+        Files.writeString(file.toPath(), "<root><value>modified</value></root>");
+        output = ctx.run("Extract_XML", input.toString());
+        assert output.getPayload().getString("value").equals("modified");
+
+        output = ctx.run("Extract_XML", Json.createObjectBuilder(input).add("UseCache", false).build().toString());
+        assert output.getPayload().getString("value").equals("modified");
+    }
+
+    @Test
+    public void test_streaming() throws Exception {
+        String path = new File(getClass().getClassLoader().getResource("test.xml").getFile()).getAbsolutePath();
+        Output<JsonObject> output;
+        JsonObject input;
+
+        // (//testMultiple)[1] is not supported by the streaming evaluation and falls back to the DOM
+        input = Json.createObjectBuilder().add("File", path).add("Streaming", true)
+                .add("/root/otherTest", "otherTestValue")
+                .add("//otherTest/@id", "myId")
+                .add("//testMultiple", "[test1,test2,...]")
+                .add("//testMultipleDuplicate", "[testSameValue*]")
+                .add("(//testMultiple)[1]", "test1")
+                .add("//testDoNotExist", "!.*").build();
+        output = ctx.run("Validate_XML", input.toString());
+        assert output.getError() == null;
+
+        input = Json.createObjectBuilder().add("File", path).add("Streaming", true)
+                .add("//testMultiple", "[test1,test4]").build();
+        output = ctx.run("Validate_XML", input.toString());
+        assert output.getError() != null;
+
+        input = Json.createObjectBuilder().add("File", path).add("Streaming", true)
+                .add("value1", "/root/otherTest")
+                .add("value2", "//testMultiple")
+                .add("value3", "(//testMultiple)[2]").build();
+        output = ctx.run("Extract_XML", input.toString());
+        assert output.getError() == null;
+        assert output.getPayload().getString("value1").equals("otherTestValue");
+        assert output.getPayload().getString("value2").equals("[test1, test2, test3]");
+        assert output.getPayload().getString("value3").equals("test2");
+    }
+
+    @Test
+    public void test_validate_xml_batch() throws Exception {
+        File folder = Files.createTempDirectory("batch").toFile();
+        folder.deleteOnExit();
+        for (int i = 1; i <= 3; i++) {
+            File file = new File(folder, "order" + i + ".xml");
+            file.deleteOnExit();
+            Files.writeString(file.toPath(), "<order id=\"" + i + "\" status=\"" + (i < 3 ? "open" : "closed") + "\">" +
+                    "<item>a</item><item>b</item></order>");
+        }
+        Output<JsonObject> output;
+        JsonObject input;
+
+        input = Json.createObjectBuilder().add("Files", folder.getAbsolutePath() + "/*.xml")
+                .add("Parallelism", 2)
+                .add("/order/item", "[b,a]")
+                .add("(//item)[1]", "a")
+                .add("//missing", "!.*").build();
+        output = ctx.run("Validate_XML_Batch", input.toString());
+        assert output.getError() == null;
+        assert output.getPayload().getInt("Files_Passed") == 3;
+
+        input = Json.createObjectBuilder().add("Files", folder.getAbsolutePath())
+                .add("/order/@status", "open")
+                .add("/order/item", "[a,b]").build();
+        output = ctx.run("Validate_XML_Batch", input.toString());
+        assert output.getError() != null;
+        assert output.getPayload().getInt("Files_Total") == 3;
+        assert output.getPayload().getInt("Files_Failed") == 1;
+        assert output.getPayload().getString("Rules")
+                .equals("{\"/order/@status\":{\"Passed\":2,\"Failed\":1},\"/order/item\":{\"Passed\":3,\"Failed\":0}}");
+        assert output.getAttachments().size() == 1;
+
+        input = Json.createObjectBuilder().add("Files", folder.getAbsolutePath())
+                .add("Parallelism", 0)
+                .add("/order/@status", "open").build();
+        output = ctx.run("Validate_XML_Batch", input.toString());
+        assert output.getError().getMsg().equals("The 'Parallelism' input must be greater than 0");
+    }
+
+    @Test
+    public void test_replace_xml_streaming() throws Exception {
+        File file = File.createTempFile("test", ".xml");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "<root><order id=\"1\" status=\"open\"><amount>10</amount></order>" +
+                "<!-- comment --><order id=\"2\" status=\"open\"><amount>20</amount></order></root>");
+        Output<JsonObject> output;
+        JsonObject input;
+
+        input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("Streaming", true)
+                .add("//order[@id='2']/amount", "25")
+                .add("/root/order[@id='1']/@status", "closed").build();
+        output = ctx.run("Replace_XML", input.toString());
+        assert output.getError() == null;
+        assert Files.readString(file.toPath()).equals("<root><order id=\"1\" status=\"closed\"><amount>10</amount></order>" +
+                "<!-- comment --><order id=\"2\" status=\"open\"><amount>25</amount></order></root>");
+
+        // the file is left unchanged if an xpath is not unique
+        input = Json.createObjectBuilder().add("File", file.getAbsolutePath()).add("Streaming", true)
+                .add("//order/@status", "closed").build();
+        output = ctx.run("Replace_XML", input.toString());
+        assert output.getError() != null;
+        assert Files.readString(file.toPath()).contains("<amount>25</amount>");
+    }
+
     @Test
     public void test_replace_xml_text() throws Exception {
         String xml = "<root>\n" +